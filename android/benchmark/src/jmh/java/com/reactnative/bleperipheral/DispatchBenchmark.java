@@ -0,0 +1,244 @@
+package com.reactnative.peripheral;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read, write and notify dispatch as done by RnBlePeripheralModule on its event loop, with the
+ * Android types replaced by plain objects. Each benchmark is one request going through the same
+ * helpers in the same order, from the stack's callback to the response handed back to it, minus
+ * the bridge to JS. Run with the gc profiler for the bytes allocated per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DispatchBenchmark {
+
+    private static final int CHARACTERISTICS = 16;
+    private static final int MTU = 247;
+    private static final long REQUEST_TIMEOUT_NANOS = 10000000000L;
+
+    /** Value length in bytes, one that fits a default MTU read and one filling a 247 byte MTU. */
+    @Param({"20", "244"})
+    public int valueLength;
+
+    /** Subscribed centrals a notification goes out to. */
+    @Param({"1", "4"})
+    public int subscribers;
+
+    private final AttributeRegistry<Characteristic> mAttributes = new AttributeRegistry<>();
+    private final ReadValueCache mReadCache = new ReadValueCache();
+    private final ReadSequences mReadSequences = new ReadSequences();
+    private final PendingRequests<GattRequest<Device, Characteristic>> mPendingRequests = new PendingRequests<>();
+    private final SubscriptionTable mSubscriptions = new SubscriptionTable();
+    private final GattStats mStats = new GattStats();
+    private NotificationQueue<Device, Characteristic> mNotificationQueue;
+
+    private Characteristic mCached;
+    private Characteristic mDynamic;
+    private Device mDevice;
+    private final HashMap<String, Device> mConnections = new HashMap<>();
+    private byte[] mValue;
+    private String mEncodedValue;
+    private int mNextRequestId;
+
+    @Setup
+    public void setUp() {
+        UUID serviceUuid = UUID.randomUUID();
+        Characteristic[] characteristics = new Characteristic[CHARACTERISTICS];
+        for (int i = 0; i < CHARACTERISTICS; i++) {
+            characteristics[i] = new Characteristic(UUID.randomUUID());
+            mAttributes.register(serviceUuid, characteristics[i].uuid, characteristics[i]);
+        }
+        mCached = characteristics[CHARACTERISTICS / 2];
+        mDynamic = characteristics[CHARACTERISTICS / 2 + 1];
+
+        mValue = new byte[valueLength];
+        new Random(42).nextBytes(mValue);
+        mEncodedValue = Base64Codec.encode(mValue);
+        mReadCache.setMode(mAttributes.getHandle(mCached), ReadValueCache.MODE_STATIC, 0);
+        mReadCache.put(mAttributes.getHandle(mCached), mValue);
+
+        mDevice = new Device("00:11:22:33:44:00");
+        for (int i = 0; i < subscribers; i++) {
+            Device device = new Device("00:11:22:33:44:0" + (i + 1));
+            mConnections.put(device.address, device);
+            mSubscriptions.set(device.address, mAttributes.getHandle(mCached), SubscriptionTable.NOTIFY);
+        }
+        mNotificationQueue = new NotificationQueue<>(new NotificationQueue.Sender<Device, Characteristic>() {
+            @Override
+            public String getAddress(Device device) {
+                return device.address;
+            }
+
+            @Override
+            public int getMaxPayload(Device device) {
+                return MTU - 3;
+            }
+
+            @Override
+            public boolean send(Device device, Characteristic characteristic, byte[] value) {
+                characteristic.value = value;
+                mStats.onNotificationFrame(mAttributes.getHandle(characteristic), value.length);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * A read answered natively from the value cache.
+     */
+    @Benchmark
+    public byte[] cachedRead() {
+        long receivedAt = System.nanoTime();
+        int handle = mAttributes.getHandle(mCached);
+        mStats.onRequest(handle, 0);
+        byte[] value = mReadCache.get(handle);
+        mStats.onCacheHit(handle);
+        mReadSequences.start(mDevice.address, handle, value);
+        return sendReadResponse(handle, 0, value, receivedAt);
+    }
+
+    /**
+     * A read forwarded to JS, then answered with the value JS responded with.
+     */
+    @Benchmark
+    public byte[] forwardedRead(Blackhole blackhole) {
+        long receivedAt = System.nanoTime();
+        int requestId = mNextRequestId++;
+        int handle = mAttributes.getHandle(mDynamic);
+        mStats.onRequest(handle, 0);
+        if (mReadCache.get(handle) != null) {
+            throw new IllegalStateException();
+        }
+        mPendingRequests.put(requestId, new GattRequest<>(requestId, 0, mDevice, mDynamic, handle, true, receivedAt),
+                receivedAt + REQUEST_TIMEOUT_NANOS);
+        MapParams params = new MapParams();
+        GattEvents.putReadRequest(params, requestId, 0);
+        GattEvents.putAttribute(params, mAttributes, handle);
+        blackhole.consume(params);
+
+        // JS responds
+        GattRequest<Device, Characteristic> request = mPendingRequests.remove(requestId);
+        byte[] value = Base64Codec.decode(mEncodedValue);
+        request.characteristic.value = value;
+        mReadCache.put(request.handle, value);
+        mReadSequences.start(request.device.address, request.handle, value);
+        return sendReadResponse(request.handle, request.offset, value, request.receivedAt);
+    }
+
+    /**
+     * A write with response forwarded to JS, then acknowledged.
+     */
+    @Benchmark
+    public int write(Blackhole blackhole) {
+        long receivedAt = System.nanoTime();
+        int requestId = mNextRequestId++;
+        int handle = mAttributes.getHandle(mDynamic);
+        mStats.onRequest(handle, mValue.length);
+        mReadSequences.end(mDevice.address, handle);
+        mPendingRequests.put(requestId, new GattRequest<>(requestId, 0, mDevice, mDynamic, handle, false, receivedAt),
+                receivedAt + REQUEST_TIMEOUT_NANOS);
+        MapParams params = new MapParams();
+        GattEvents.putWriteRequest(params, requestId, true, 0, mValue);
+        GattEvents.putAttribute(params, mAttributes, handle);
+        blackhole.consume(params);
+
+        // JS responds
+        GattRequest<Device, Characteristic> request = mPendingRequests.remove(requestId);
+        mStats.onResponse(request.handle, System.nanoTime() - request.receivedAt, 0);
+        return request.status;
+    }
+
+    /**
+     * A notification from JS sent to every subscriber, up to every device reporting it as sent.
+     */
+    @Benchmark
+    public int notifySubscribers() {
+        final int handle = mAttributes.getHandle(mCached);
+        byte[] value = Base64Codec.decode(mEncodedValue);
+        ArrayList<Device> devices = new ArrayList<>();
+        for (String address : mSubscriptions.getDeviceAddresses(handle)) {
+            devices.add(mConnections.get(address));
+        }
+        final int[] result = new int[1];
+        mNotificationQueue.notify(devices, mCached, value, new NotificationQueue.Completion() {
+            @Override
+            protected void onComplete(int sent, int failed) {
+                mStats.onNotificationsComplete(handle, sent, failed);
+                result[0] = sent;
+            }
+        });
+        for (Device device : devices) {
+            mNotificationQueue.onSent(device.address, true);
+        }
+        return result[0];
+    }
+
+    private byte[] sendReadResponse(int handle, int offset, byte[] value, long receivedAt) {
+        byte[] slice = ReadSequences.slice(value, offset, MTU - 1);
+        mStats.onResponse(handle, System.nanoTime() - receivedAt, slice != null ? slice.length : 0);
+        return slice;
+    }
+
+    static final class Characteristic {
+        final UUID uuid;
+        byte[] value;
+
+        Characteristic(UUID uuid) {
+            this.uuid = uuid;
+        }
+    }
+
+    static final class Device {
+        final String address;
+
+        Device(String address) {
+            this.address = address;
+        }
+    }
+
+    /**
+     * Stands in for React's WritableMap.
+     */
+    static final class MapParams extends HashMap<String, Object> implements GattEvents.Params {
+        @Override
+        public void putString(String key, String value) {
+            put(key, value);
+        }
+
+        @Override
+        public void putInt(String key, int value) {
+            put(key, value);
+        }
+
+        @Override
+        public void putBoolean(String key, boolean value) {
+            put(key, value);
+        }
+
+        @Override
+        public void putDouble(String key, double value) {
+            put(key, value);
+        }
+    }
+}
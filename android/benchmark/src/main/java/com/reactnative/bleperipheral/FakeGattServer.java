@@ -0,0 +1,411 @@
+package com.reactnative.peripheral;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for BluetoothGattServer and for the JS side of the module, driving the real
+ * {@link GattDispatcher}. Like the module, every dispatcher call runs on a single event loop
+ * thread. Centrals call in from their own threads, as the binder threads do on a device, and
+ * block until the dispatcher answered their request.
+ *
+ * JS answers forwarded requests after a fixed latency and leaves a share of them unanswered, so
+ * that they time out.
+ */
+class FakeGattServer implements GattDispatcher.Backend<FakeGattServer.Central, FakeGattServer.Characteristic> {
+
+    static final class Characteristic {
+        final UUID uuid;
+        final int properties;
+        volatile byte[] value;
+
+        Characteristic(UUID uuid, int properties, byte[] value) {
+            this.uuid = uuid;
+            this.properties = properties;
+            this.value = value;
+        }
+    }
+
+    static final class Response {
+        final int status;
+        final byte[] value;
+
+        Response(int status, byte[] value) {
+            this.status = status;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A connected central. ATT allows one outstanding request per connection, so every call
+     * blocks until it was answered.
+     */
+    final class Central {
+        final String address;
+        final int mtu;
+        final AtomicLong notificationsReceived = new AtomicLong();
+        private final ConcurrentHashMap<Integer, ResponseSlot> mPending = new ConcurrentHashMap<>();
+
+        Central(String address, int mtu) {
+            this.address = address;
+            this.mtu = mtu;
+        }
+
+        void connect() {
+            final Central central = this;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mDispatcher.onConnected(central);
+                    mDispatcher.onMtuChanged(central, mtu);
+                }
+            });
+        }
+
+        void disconnect() {
+            final Central central = this;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mDispatcher.onDisconnected(central);
+                }
+            });
+        }
+
+        Response read(final Characteristic characteristic, final int offset) throws InterruptedException {
+            final Central central = this;
+            final int requestId = mNextRequestId.incrementAndGet();
+            final long receivedAt = System.nanoTime();
+            return call(requestId, new Runnable() {
+                @Override
+                public void run() {
+                    mDispatcher.onReadRequest(central, requestId, offset, characteristic, receivedAt);
+                }
+            });
+        }
+
+        Response write(final Characteristic characteristic, final boolean prepared, final int offset,
+                       final byte[] value) throws InterruptedException {
+            final Central central = this;
+            final int requestId = mNextRequestId.incrementAndGet();
+            final long receivedAt = System.nanoTime();
+            return call(requestId, new Runnable() {
+                @Override
+                public void run() {
+                    mDispatcher.onWriteRequest(central, requestId, characteristic, prepared, true, offset, value,
+                            receivedAt);
+                }
+            });
+        }
+
+        Response executeWrite(final boolean execute) throws InterruptedException {
+            final Central central = this;
+            final int requestId = mNextRequestId.incrementAndGet();
+            final long receivedAt = System.nanoTime();
+            return call(requestId, new Runnable() {
+                @Override
+                public void run() {
+                    mDispatcher.onExecuteWrite(central, requestId, execute, receivedAt);
+                }
+            });
+        }
+
+        Response subscribe(final Characteristic characteristic) throws InterruptedException {
+            final Central central = this;
+            final int requestId = mNextRequestId.incrementAndGet();
+            return call(requestId, new Runnable() {
+                @Override
+                public void run() {
+                    mDispatcher.onConfigurationWrite(central, requestId, characteristic, true,
+                            GattDispatcher.ENABLE_NOTIFICATION_VALUE);
+                }
+            });
+        }
+
+        private Response call(int requestId, Runnable request) throws InterruptedException {
+            ResponseSlot slot = new ResponseSlot();
+            mPending.put(requestId, slot);
+            post(request);
+            return slot.take();
+        }
+
+        private void onResponse(int requestId, int status, byte[] value) {
+            ResponseSlot slot = mPending.remove(requestId);
+            if (slot != null) {
+                slot.put(new Response(status, value));
+            }
+        }
+    }
+
+    private static final class ResponseSlot {
+        private Response mResponse;
+
+        synchronized void put(Response response) {
+            mResponse = response;
+            notifyAll();
+        }
+
+        synchronized Response take() throws InterruptedException {
+            while (mResponse == null) {
+                wait();
+            }
+            return mResponse;
+        }
+    }
+
+    private final ScheduledThreadPoolExecutor mEventLoop = new ScheduledThreadPoolExecutor(1);
+    private final GattDispatcher<Central, Characteristic> mDispatcher;
+    private final AtomicInteger mNextRequestId = new AtomicInteger();
+    private final UUID mServiceUuid = UUID.randomUUID();
+    private final long mJsLatencyMicros;
+    private final double mJsDropRate;
+    /** Only used on the event loop. */
+    private final Random mRandom = new Random(42);
+    private final AtomicLong mNotificationsQueued = new AtomicLong();
+    private final AtomicLong mNotificationsCompleted = new AtomicLong();
+    private final AtomicLong mNotificationsFailed = new AtomicLong();
+
+    /**
+     * @param jsLatencyMicros time JS takes to respond to a forwarded request
+     * @param jsDropRate      share of forwarded requests JS never responds to, from 0 to 1
+     */
+    FakeGattServer(long jsLatencyMicros, double jsDropRate) {
+        mJsLatencyMicros = jsLatencyMicros;
+        mJsDropRate = jsDropRate;
+        mDispatcher = new GattDispatcher<>(this, new SimulatedJs());
+    }
+
+    Central createCentral(int index, int mtu) {
+        return new Central(String.format("00:00:00:00:%02X:%02X", index >> 8, index & 0xff), mtu);
+    }
+
+    /**
+     * Adds a characteristic, its value served from the native cache when cached is set.
+     */
+    Characteristic addCharacteristic(final int properties, final byte[] value, final boolean cached)
+            throws InterruptedException {
+        final Characteristic characteristic = new Characteristic(UUID.randomUUID(), properties, value);
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                int handle = mDispatcher.getAttributes().register(mServiceUuid, characteristic.uuid, characteristic);
+                if (cached) {
+                    mDispatcher.getReadCache().setMode(handle, ReadValueCache.MODE_STATIC, 0);
+                    mDispatcher.getReadCache().put(handle, value);
+                }
+            }
+        });
+        return characteristic;
+    }
+
+    void setRequestTimeout(final long timeoutMillis) throws InterruptedException {
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mDispatcher.setRequestTimeout(timeoutMillis * 1000000L);
+            }
+        });
+    }
+
+    /**
+     * Notifies every subscriber from JS, without waiting for the notifications to be sent.
+     */
+    void notify(final Characteristic characteristic, final byte[] value) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                String error = mDispatcher.notify(mDispatcher.getAttributes().getHandle(characteristic), value,
+                        new NotificationQueue.Completion() {
+                            @Override
+                            protected void onComplete(int sent, int failed) {
+                                mNotificationsFailed.addAndGet(failed);
+                                mNotificationsCompleted.incrementAndGet();
+                            }
+                        });
+                if (error == null) {
+                    mNotificationsQueued.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    long getNotificationsQueued() {
+        return mNotificationsQueued.get();
+    }
+
+    /**
+     * Returns how many notify calls went out to every subscriber, successfully or not.
+     */
+    long getNotificationsCompleted() {
+        return mNotificationsCompleted.get();
+    }
+
+    long getNotificationsFailed() {
+        return mNotificationsFailed.get();
+    }
+
+    /**
+     * Returns a snapshot of the dispatcher's counters, in the order handles were assigned.
+     */
+    GattStats.Counters[] getStats() throws InterruptedException {
+        final GattStats.Counters[][] result = new GattStats.Counters[1][];
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = mDispatcher.getStats().snapshot();
+            }
+        });
+        return result[0];
+    }
+
+    int getPendingRequestCount() throws InterruptedException {
+        final int[] result = new int[1];
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = mDispatcher.getPendingRequestCount();
+            }
+        });
+        return result[0];
+    }
+
+    void shutdown() {
+        mEventLoop.shutdownNow();
+    }
+
+    @Override
+    public String getAddress(Central device) {
+        return device.address;
+    }
+
+    @Override
+    public int getProperties(Characteristic characteristic) {
+        return characteristic.properties;
+    }
+
+    @Override
+    public byte[] getValue(Characteristic characteristic) {
+        return characteristic.value;
+    }
+
+    @Override
+    public void setValue(Characteristic characteristic, byte[] value) {
+        characteristic.value = value;
+    }
+
+    @Override
+    public void sendResponse(Central device, int requestId, int status, int offset, byte[] value) {
+        device.onResponse(requestId, status, value);
+    }
+
+    /**
+     * Delivers the notification right away and reports it as sent on the next turn of the event
+     * loop, like a stack with a free transmit slot.
+     */
+    @Override
+    public boolean notify(final Central device, Characteristic characteristic, byte[] value, boolean confirm) {
+        device.notificationsReceived.incrementAndGet();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mDispatcher.onNotificationSent(device, true);
+            }
+        });
+        return true;
+    }
+
+    private void post(Runnable task) {
+        mEventLoop.execute(task);
+    }
+
+    private void runAndWait(final Runnable task) throws InterruptedException {
+        final ResponseSlot done = new ResponseSlot();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                task.run();
+                done.put(new Response(GattDispatcher.GATT_SUCCESS, null));
+            }
+        });
+        done.take();
+    }
+
+    /**
+     * Responds to forwarded requests the way a JS handler would, through respond().
+     */
+    private final class SimulatedJs implements GattDispatcher.Listener<Central, Characteristic> {
+        @Override
+        public void onReadRequest(int requestId, int handle, Characteristic characteristic, int offset) {
+            respondLater(requestId, Base64Codec.encode(characteristic.value));
+        }
+
+        @Override
+        public void onWriteRequest(int requestId, int handle, Characteristic characteristic, int offset,
+                                   byte[] value, boolean responseNeeded) {
+            if (responseNeeded) {
+                respondLater(requestId, null);
+            }
+        }
+
+        @Override
+        public void onSubscriptionChanged(Central device, int handle, boolean subscribed) {
+        }
+
+        @Override
+        public void onMtuChanged(Central device, int mtu) {
+        }
+
+        @Override
+        public void onPhyChanged(Central device, int txPhy, int rxPhy) {
+        }
+
+        @Override
+        public void onRequestTimedOut(int requestId) {
+        }
+
+        @Override
+        public void onWriteSinkProgress(int handle, WriteSink sink) {
+        }
+
+        @Override
+        public void onWriteSinkClosed(int handle, WriteSink sink, String error) {
+        }
+
+        @Override
+        public void scheduleNotificationFlush(long delayNanos) {
+            mEventLoop.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mDispatcher.flushNotifications(System.nanoTime());
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void scheduleTimeoutSweep(long delayNanos) {
+            mEventLoop.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mDispatcher.sweepTimeouts(System.nanoTime());
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void respondLater(final int requestId, final String value) {
+            if (mRandom.nextDouble() < mJsDropRate) {
+                return;
+            }
+            mEventLoop.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mDispatcher.respond(String.valueOf(requestId), "success", value);
+                }
+            }, mJsLatencyMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.reactnative.peripheral;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Simulates virtual centrals hammering a {@link FakeGattServer} and reports, per scenario, the
+ * request throughput, the latency seen by the centrals, and the requests that failed or timed
+ * out. Every central runs on its own thread and keeps one request outstanding at a time.
+ *
+ * Usage: LoadGenerator [centrals] [seconds per scenario] [scenario...]
+ */
+public class LoadGenerator {
+
+    private static final int MTU = 185;
+    private static final int VALUE_LENGTH = 20;
+    private static final int PREPARED_WRITE_LENGTH = 512;
+    /** JS takes this long to respond to a forwarded request, in microseconds. */
+    private static final long JS_LATENCY = 200;
+    /** Notify calls JS may have in flight before it waits for them to be sent. */
+    private static final int NOTIFY_BACKLOG = 64;
+
+    enum Scenario {
+        /** Reads answered from the native value cache. */
+        CACHED_READS(0),
+        /** Reads forwarded to JS. */
+        FORWARDED_READS(0),
+        /** Writes with response, forwarded to JS. */
+        WRITES(0),
+        /** Long writes as prepared write bursts and an execute write. */
+        PREPARED_WRITES(0),
+        /** Forwarded reads JS doesn't always respond to, answered by the request timeout. */
+        TIMEOUTS(0.05),
+        /** Notifications fanned out to every central, as fast as they're sent. */
+        NOTIFICATIONS(0),
+        /** Everything at once, with notifications going out in the background. */
+        MIXED(0);
+
+        final double jsDropRate;
+
+        Scenario(double jsDropRate) {
+            this.jsDropRate = jsDropRate;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int centrals = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        List<Scenario> scenarios = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            scenarios.add(Scenario.valueOf(args[i].toUpperCase(Locale.US)));
+        }
+        if (scenarios.isEmpty()) {
+            scenarios.addAll(Arrays.asList(Scenario.values()));
+        }
+        System.out.println(String.format(Locale.US, "%d centrals, %d s per scenario, MTU %d, JS latency %d us",
+                centrals, seconds, MTU, JS_LATENCY));
+        System.out.println(String.format(Locale.US, "%-16s %10s %10s %8s %8s %8s %8s %8s %8s %10s %8s",
+                "scenario", "requests", "req/s", "p50 ms", "p99 ms", "max ms", "errors", "timeouts",
+                "pending", "notif/s", "dropped"));
+        for (Scenario scenario : scenarios) {
+            System.out.println(run(scenario, centrals, seconds * 1000L));
+        }
+    }
+
+    static Result run(final Scenario scenario, int centralCount, long durationMillis) throws Exception {
+        final FakeGattServer server = new FakeGattServer(JS_LATENCY, scenario.jsDropRate);
+        if (scenario == Scenario.TIMEOUTS) {
+            server.setRequestTimeout(100);
+        }
+        byte[] value = new byte[VALUE_LENGTH];
+        new Random(1).nextBytes(value);
+        final FakeGattServer.Characteristic cached = server.addCharacteristic(GattAttributes.PROPERTY_READ, value, true);
+        final FakeGattServer.Characteristic dynamic = server.addCharacteristic(
+                GattAttributes.PROPERTY_READ | GattAttributes.PROPERTY_WRITE, value, false);
+        final FakeGattServer.Characteristic notified = server.addCharacteristic(GattAttributes.PROPERTY_NOTIFY, value,
+                false);
+
+        final boolean notifications = scenario == Scenario.NOTIFICATIONS || scenario == Scenario.MIXED;
+        final ArrayList<FakeGattServer.Central> centrals = new ArrayList<>();
+        for (int i = 0; i < centralCount; i++) {
+            FakeGattServer.Central central = server.createCentral(i, MTU);
+            central.connect();
+            if (notifications) {
+                central.subscribe(notified);
+            }
+            centrals.add(central);
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final Worker[] workers = new Worker[centralCount];
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < centralCount; i++) {
+            workers[i] = new Worker(scenario, centrals.get(i), cached, dynamic, running, i);
+            if (scenario != Scenario.NOTIFICATIONS) {
+                threads.add(new Thread(workers[i], "central-" + i));
+            }
+        }
+        if (notifications) {
+            final byte[] notification = value;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (running.get()) {
+                        if (server.getNotificationsQueued() - server.getNotificationsCompleted() < NOTIFY_BACKLOG) {
+                            server.notify(notified, notification);
+                        } else {
+                            Thread.yield();
+                        }
+                    }
+                }
+            }, "js-notify"));
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(durationMillis);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        Result result = new Result(scenario, elapsedSeconds);
+        for (Worker worker : workers) {
+            result.requests += worker.requests;
+            result.errors += worker.errors;
+            result.timeouts += worker.timeouts;
+            result.latency.add(worker.latency);
+        }
+        for (FakeGattServer.Central central : centrals) {
+            result.notificationsReceived += central.notificationsReceived.get();
+        }
+        result.notificationsDropped = server.getNotificationsFailed();
+        result.pending = server.getPendingRequestCount();
+        server.shutdown();
+        return result;
+    }
+
+    /**
+     * The requests of one central.
+     */
+    private static final class Worker implements Runnable {
+        final Scenario scenario;
+        final FakeGattServer.Central central;
+        final FakeGattServer.Characteristic cached;
+        final FakeGattServer.Characteristic dynamic;
+        final AtomicBoolean running;
+        final Random random;
+        final GattStats.LatencyHistogram latency = new GattStats.LatencyHistogram();
+        final byte[] value = new byte[VALUE_LENGTH];
+        final byte[] longValue = new byte[PREPARED_WRITE_LENGTH];
+        long requests;
+        long errors;
+        long timeouts;
+
+        Worker(Scenario scenario, FakeGattServer.Central central, FakeGattServer.Characteristic cached,
+               FakeGattServer.Characteristic dynamic, AtomicBoolean running, int seed) {
+            this.scenario = scenario;
+            this.central = central;
+            this.cached = cached;
+            this.dynamic = dynamic;
+            this.running = running;
+            this.random = new Random(seed);
+            random.nextBytes(value);
+            random.nextBytes(longValue);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running.get()) {
+                    Scenario next = scenario;
+                    if (scenario == Scenario.MIXED) {
+                        next = Scenario.values()[random.nextInt(Scenario.PREPARED_WRITES.ordinal() + 1)];
+                    }
+                    long start = System.nanoTime();
+                    switch (next) {
+                        case CACHED_READS:
+                            record(start, central.read(cached, 0));
+                            break;
+                        case FORWARDED_READS:
+                        case TIMEOUTS:
+                            record(start, central.read(dynamic, 0));
+                            break;
+                        case WRITES:
+                            record(start, central.write(dynamic, false, 0, value));
+                            break;
+                        case PREPARED_WRITES:
+                            preparedWrite();
+                            break;
+                        default:
+                            return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void preparedWrite() throws InterruptedException {
+            // prepare write requests carry at most MTU - 5 bytes
+            int fragmentLength = MTU - 5;
+            for (int offset = 0; offset < longValue.length; offset += fragmentLength) {
+                byte[] fragment = Arrays.copyOfRange(longValue, offset,
+                        Math.min(offset + fragmentLength, longValue.length));
+                long start = System.nanoTime();
+                if (!record(start, central.write(dynamic, true, offset, fragment))) {
+                    record(System.nanoTime(), central.executeWrite(false));
+                    return;
+                }
+            }
+            record(System.nanoTime(), central.executeWrite(true));
+        }
+
+        private boolean record(long start, FakeGattServer.Response response) {
+            latency.record(System.nanoTime() - start);
+            requests++;
+            if (response.status == GattDispatcher.GATT_UNLIKELY_ERROR) {
+                timeouts++;
+            } else if (response.status != GattDispatcher.GATT_SUCCESS) {
+                errors++;
+            }
+            return response.status == GattDispatcher.GATT_SUCCESS;
+        }
+    }
+
+    static final class Result {
+        final Scenario scenario;
+        final double elapsedSeconds;
+        final GattStats.LatencyHistogram latency = new GattStats.LatencyHistogram();
+        long requests;
+        long errors;
+        long timeouts;
+        long pending;
+        long notificationsReceived;
+        long notificationsDropped;
+
+        Result(Scenario scenario, double elapsedSeconds) {
+            this.scenario = scenario;
+            this.elapsedSeconds = elapsedSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-16s %10d %10.0f %8.3f %8.3f %8.3f %8d %8d %8d %10.0f %8d",
+                    scenario.name().toLowerCase(Locale.US), requests, requests / elapsedSeconds,
+                    latency.percentile(50), latency.percentile(99), latency.getMax(), errors, timeouts, pending,
+                    notificationsReceived / elapsedSeconds, notificationsDropped);
+        }
+    }
+}
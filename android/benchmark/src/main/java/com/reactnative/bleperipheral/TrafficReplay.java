@@ -0,0 +1,368 @@
+package com.reactnative.peripheral;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+/**
+ * Feeds a traffic log recorded on a device back through the real {@link GattDispatcher}, at the
+ * recorded pace, faster, or as fast as possible, and reports how the dispatcher handled it.
+ *
+ * Everything is replayed on the calling thread, in the order it was recorded: requests, connection
+ * events and sent notifications as they came from the stack, responses and notify calls as JS made
+ * them. The responses and notifications the dispatcher hands to the stack are checked against the
+ * recorded ones, so a change that answers the same traffic differently shows up as a mismatch.
+ * Request timeouts and notification rate limits run on the wall clock, so replaying faster than
+ * recorded lets fewer requests time out than did on the device.
+ *
+ * Usage: TrafficReplay log [speed], speed 1 for the recorded pace (default), 0 for as fast as possible
+ */
+public class TrafficReplay {
+
+    /** Every property, so that whatever the central did with a characteristic is allowed. */
+    private static final int PROPERTIES = GattAttributes.PROPERTY_READ | GattAttributes.PROPERTY_WRITE
+            | GattAttributes.PROPERTY_NOTIFY | GattAttributes.PROPERTY_INDICATE;
+
+    private static final class Attribute {
+        byte[] value;
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        final long due;
+        final boolean sweep;
+
+        Timer(long due, boolean sweep) {
+            this.due = due;
+            this.sweep = sweep;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(due, other.due);
+        }
+    }
+
+    private final GattDispatcher<String, Attribute> mDispatcher;
+    private final ArrayList<Attribute> mAttributes = new ArrayList<>();
+    /** Sweeps and flushes the dispatcher asked for, by wall clock deadline. */
+    private final PriorityQueue<Timer> mTimers = new PriorityQueue<>();
+    /** Recorded responses by address and request id, and notifications by address, in order. */
+    private final HashMap<String, ArrayDeque<TrafficRecorder.Record>> mResponses = new HashMap<>();
+    private final HashMap<String, ArrayDeque<TrafficRecorder.Record>> mNotifications = new HashMap<>();
+    private long mForwarded;
+    private long mResponsesMatched;
+    private long mResponsesMismatched;
+    private long mResponsesUnexpected;
+    private long mNotificationsMatched;
+    private long mNotificationsMismatched;
+    private long mNotificationsUnexpected;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: TrafficReplay log [speed]");
+            System.exit(2);
+        }
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+        List<TrafficRecorder.Record> records = TrafficRecorder.read(new File(args[0]));
+        TrafficReplay replay = new TrafficReplay(records);
+        long start = System.nanoTime();
+        replay.run(records, speed);
+        replay.report(records, System.nanoTime() - start);
+    }
+
+    TrafficReplay(List<TrafficRecorder.Record> records) {
+        mDispatcher = new GattDispatcher<>(new ReplayedStack(), new ReplayedJs());
+        int maxHandle = -1;
+        for (TrafficRecorder.Record record : records) {
+            switch (record.type) {
+                case TrafficRecorder.RESPONSE:
+                    expect(mResponses, record.address + '/' + record.requestId, record);
+                    break;
+                case TrafficRecorder.NOTIFICATION:
+                    expect(mNotifications, record.address, record);
+                    break;
+            }
+            maxHandle = Math.max(maxHandle, record.handle);
+        }
+        // handles are assigned in order, register one characteristic for every handle seen
+        UUID serviceUuid = new UUID(0, 0);
+        for (int handle = 0; handle <= maxHandle; handle++) {
+            Attribute attribute = new Attribute();
+            mAttributes.add(attribute);
+            mDispatcher.getAttributes().register(serviceUuid, new UUID(0, handle + 1), attribute);
+        }
+    }
+
+    void run(List<TrafficRecorder.Record> records, double speed) throws InterruptedException {
+        long start = System.nanoTime();
+        long elapsed = 0;
+        for (int i = 0; i < records.size(); i++) {
+            TrafficRecorder.Record record = records.get(i);
+            if (i > 0) {
+                // a log spanning app restarts can go back in time
+                elapsed += Math.max(0, record.at - records.get(i - 1).at);
+            }
+            long due = speed > 0 ? start + (long) (elapsed / speed) : System.nanoTime();
+            runTimers(due);
+            sleepUntil(due);
+            feed(record);
+        }
+        runTimers(System.nanoTime());
+    }
+
+    private void feed(TrafficRecorder.Record record) {
+        String address = record.address;
+        long now = System.nanoTime();
+        switch (record.type) {
+            case TrafficRecorder.CONNECTED:
+                mDispatcher.onConnected(address);
+                break;
+            case TrafficRecorder.DISCONNECTED:
+                mDispatcher.onDisconnected(address);
+                break;
+            case TrafficRecorder.MTU_CHANGED:
+                mDispatcher.onMtuChanged(address, record.arg);
+                break;
+            case TrafficRecorder.PHY_CHANGED:
+                mDispatcher.onPhyChanged(address, record.arg >> 8, record.arg & 0xFF);
+                break;
+            case TrafficRecorder.READ_REQUEST:
+                prepareReadCache(record);
+                mDispatcher.onReadRequest(address, record.requestId, record.offset, getAttribute(record.handle), now);
+                break;
+            case TrafficRecorder.WRITE_REQUEST:
+                mDispatcher.onWriteRequest(address, record.requestId, getAttribute(record.handle),
+                        record.hasFlag(TrafficRecorder.FLAG_PREPARED),
+                        record.hasFlag(TrafficRecorder.FLAG_RESPONSE_NEEDED), record.offset, record.value, now);
+                break;
+            case TrafficRecorder.EXECUTE_WRITE:
+                mDispatcher.onExecuteWrite(address, record.requestId, record.hasFlag(TrafficRecorder.FLAG_SUCCESS),
+                        now);
+                break;
+            case TrafficRecorder.DESCRIPTOR_READ:
+                mDispatcher.onConfigurationRead(address, record.requestId, record.offset,
+                        getAttribute(record.handle));
+                break;
+            case TrafficRecorder.DESCRIPTOR_WRITE:
+                mDispatcher.onConfigurationWrite(address, record.requestId, getAttribute(record.handle),
+                        record.hasFlag(TrafficRecorder.FLAG_RESPONSE_NEEDED), record.value);
+                break;
+            case TrafficRecorder.NOTIFICATION_SENT:
+                mDispatcher.onNotificationSent(address, record.hasFlag(TrafficRecorder.FLAG_SUCCESS));
+                break;
+            case TrafficRecorder.JS_RESPONSE:
+                mDispatcher.respond(String.valueOf(record.requestId),
+                        record.hasFlag(TrafficRecorder.FLAG_SUCCESS) ? "success" : "failure", record.value);
+                break;
+            case TrafficRecorder.JS_NOTIFY:
+                mDispatcher.notify(record.handle, record.value, new NotificationQueue.Completion() {
+                    @Override
+                    protected void onComplete(int sent, int failed) {
+                    }
+                });
+                break;
+        }
+    }
+
+    /**
+     * Puts the value the read was answered with in the cache when the device served it from
+     * there, and keeps the read from being served from the cache otherwise. Only the part of the
+     * value the central got is known.
+     */
+    private void prepareReadCache(TrafficRecorder.Record record) {
+        ReadValueCache cache = mDispatcher.getReadCache();
+        if (record.arg == TrafficRecorder.SOURCE_CACHE) {
+            ArrayDeque<TrafficRecorder.Record> responses = mResponses.get(record.address + '/' + record.requestId);
+            TrafficRecorder.Record response = responses != null ? responses.peek() : null;
+            byte[] slice = response != null && response.value != null ? response.value : new byte[0];
+            byte[] value = new byte[record.offset + slice.length];
+            System.arraycopy(slice, 0, value, record.offset, slice.length);
+            cache.setMode(record.handle, ReadValueCache.MODE_STATIC, 0);
+            cache.put(record.handle, value);
+        } else if (record.arg == TrafficRecorder.SOURCE_JS) {
+            cache.setMode(record.handle, ReadValueCache.MODE_DYNAMIC, 0);
+        }
+    }
+
+    private Attribute getAttribute(int handle) {
+        return handle >= 0 && handle < mAttributes.size() ? mAttributes.get(handle) : null;
+    }
+
+    private void runTimers(long until) throws InterruptedException {
+        while (!mTimers.isEmpty() && mTimers.peek().due <= until) {
+            Timer timer = mTimers.poll();
+            sleepUntil(timer.due);
+            if (timer.sweep) {
+                mDispatcher.sweepTimeouts(System.nanoTime());
+            } else {
+                mDispatcher.flushNotifications(System.nanoTime());
+            }
+        }
+    }
+
+    private static void sleepUntil(long due) throws InterruptedException {
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        }
+    }
+
+    private static void expect(HashMap<String, ArrayDeque<TrafficRecorder.Record>> expected, String key,
+                               TrafficRecorder.Record record) {
+        ArrayDeque<TrafficRecorder.Record> records = expected.get(key);
+        if (records == null) {
+            records = new ArrayDeque<>();
+            expected.put(key, records);
+        }
+        records.add(record);
+    }
+
+    private static long countRemaining(HashMap<String, ArrayDeque<TrafficRecorder.Record>> expected) {
+        long count = 0;
+        for (ArrayDeque<TrafficRecorder.Record> records : expected.values()) {
+            count += records.size();
+        }
+        return count;
+    }
+
+    void report(List<TrafficRecorder.Record> records, long replayNanos) {
+        long recordedNanos = 0;
+        for (int i = 1; i < records.size(); i++) {
+            recordedNanos += Math.max(0, records.get(i).at - records.get(i - 1).at);
+        }
+        GattStats.Counters total = new GattStats.Counters();
+        for (GattStats.Counters counters : mDispatcher.getStats().snapshot()) {
+            if (counters != null) {
+                total.add(counters);
+            }
+        }
+        System.out.println(String.format(Locale.US, "%d records, %.3f s recorded, replayed in %.3f s",
+                records.size(), recordedNanos / 1e9, replayNanos / 1e9));
+        System.out.println(String.format(Locale.US,
+                "requests %d, forwarded to JS %d, cache hits %d, timeouts %d, still pending %d",
+                total.requests, mForwarded, total.cacheHits, total.timeouts, mDispatcher.getPendingRequestCount()));
+        System.out.println(String.format(Locale.US, "latency ms: mean %.3f, p50 %.3f, p99 %.3f, max %.3f",
+                total.latency.getMean(), total.latency.percentile(50), total.latency.percentile(99),
+                total.latency.getMax()));
+        System.out.println(String.format(Locale.US,
+                "responses: %d as recorded, %d different, %d not recorded, %d recorded but not sent",
+                mResponsesMatched, mResponsesMismatched, mResponsesUnexpected, countRemaining(mResponses)));
+        System.out.println(String.format(Locale.US,
+                "notifications: %d as recorded, %d different, %d not recorded, %d recorded but not sent, %d skipped",
+                mNotificationsMatched, mNotificationsMismatched, mNotificationsUnexpected,
+                countRemaining(mNotifications), total.notificationsSkipped));
+    }
+
+    /**
+     * Checks what the dispatcher hands to the stack against what was recorded.
+     */
+    private final class ReplayedStack implements GattDispatcher.Backend<String, Attribute> {
+        @Override
+        public String getAddress(String device) {
+            return device;
+        }
+
+        @Override
+        public int getProperties(Attribute characteristic) {
+            return PROPERTIES;
+        }
+
+        @Override
+        public byte[] getValue(Attribute characteristic) {
+            return characteristic.value;
+        }
+
+        @Override
+        public void setValue(Attribute characteristic, byte[] value) {
+            characteristic.value = value;
+        }
+
+        @Override
+        public void sendResponse(String device, int requestId, int status, int offset, byte[] value) {
+            ArrayDeque<TrafficRecorder.Record> expected = mResponses.get(device + '/' + requestId);
+            TrafficRecorder.Record record = expected != null ? expected.poll() : null;
+            if (record == null) {
+                mResponsesUnexpected++;
+            } else if (record.arg == status && record.offset == offset && Arrays.equals(record.value, value)) {
+                mResponsesMatched++;
+            } else {
+                mResponsesMismatched++;
+            }
+        }
+
+        /**
+         * Accepts the notification if the stack did, it's reported as sent when the log says so.
+         */
+        @Override
+        public boolean notify(String device, Attribute characteristic, byte[] value, boolean confirm) {
+            ArrayDeque<TrafficRecorder.Record> expected = mNotifications.get(device);
+            TrafficRecorder.Record record = expected != null ? expected.poll() : null;
+            if (record == null) {
+                mNotificationsUnexpected++;
+                return true;
+            }
+            if (getAttribute(record.handle) == characteristic && Arrays.equals(record.value, value)) {
+                mNotificationsMatched++;
+            } else {
+                mNotificationsMismatched++;
+            }
+            return record.hasFlag(TrafficRecorder.FLAG_SUCCESS);
+        }
+    }
+
+    /**
+     * JS as far as the dispatcher is concerned, its responses and notify calls come from the log.
+     */
+    private final class ReplayedJs implements GattDispatcher.Listener<String, Attribute> {
+        @Override
+        public void onReadRequest(int requestId, int handle, Attribute characteristic, int offset) {
+            mForwarded++;
+        }
+
+        @Override
+        public void onWriteRequest(int requestId, int handle, Attribute characteristic, int offset, byte[] value,
+                                   boolean responseNeeded) {
+            mForwarded++;
+        }
+
+        @Override
+        public void onSubscriptionChanged(String device, int handle, boolean subscribed) {
+        }
+
+        @Override
+        public void onMtuChanged(String device, int mtu) {
+        }
+
+        @Override
+        public void onPhyChanged(String device, int txPhy, int rxPhy) {
+        }
+
+        @Override
+        public void onRequestTimedOut(int requestId) {
+        }
+
+        @Override
+        public void onWriteSinkProgress(int handle, WriteSink sink) {
+        }
+
+        @Override
+        public void onWriteSinkClosed(int handle, WriteSink sink, String error) {
+        }
+
+        @Override
+        public void scheduleTimeoutSweep(long delayNanos) {
+            mTimers.add(new Timer(System.nanoTime() + delayNanos, true));
+        }
+
+        @Override
+        public void scheduleNotificationFlush(long delayNanos) {
+            mTimers.add(new Timer(System.nanoTime() + delayNanos, false));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.reactnative.peripheral;
+
+/**
+ * Decides how the advertiser should run, trading discovery latency against radio time. The
+ * adaptive profile advertises in low latency mode for a burst after advertising starts or a
+ * central disconnects, then backs off to balanced and finally to low power. Advertising pauses
+ * while the maximum number of centrals is connected.
+ */
+class AdvertisingScheduler {
+
+    /** The advertiser should not run. */
+    static final int PROFILE_PAUSED = -1;
+    static final int PROFILE_LOW_LATENCY = 0;
+    static final int PROFILE_BALANCED = 1;
+    static final int PROFILE_LOW_POWER = 2;
+    static final int PROFILE_ADAPTIVE = 3;
+
+    static final long DEFAULT_BURST_DURATION = 30000;
+
+    private int mProfile = PROFILE_BALANCED;
+    private long mBurstNanos = DEFAULT_BURST_DURATION * 1000000L;
+    private int mMaxConnections;
+    private int mConnections;
+    private long mBurstStart;
+    private boolean mPaused;
+
+    static int parseProfile(String profile) {
+        if (profile == null) {
+            return PROFILE_BALANCED;
+        }
+        switch (profile) {
+            case "lowLatency":
+                return PROFILE_LOW_LATENCY;
+            case "lowPower":
+                return PROFILE_LOW_POWER;
+            case "adaptive":
+                return PROFILE_ADAPTIVE;
+        }
+        return PROFILE_BALANCED;
+    }
+
+    /**
+     * Configures the profile. A maximum of 0 connections never pauses advertising.
+     */
+    void setProfile(int profile, long burstMillis, int maxConnections) {
+        mProfile = profile;
+        mBurstNanos = Math.max(0, burstMillis) * 1000000L;
+        mMaxConnections = Math.max(0, maxConnections);
+    }
+
+    /**
+     * Starts a burst, called when advertising starts or resumes.
+     */
+    void onStart(long now) {
+        mBurstStart = now;
+    }
+
+    /**
+     * Pauses advertising regardless of the profile, until called again with false.
+     */
+    void setPaused(boolean paused) {
+        mPaused = paused;
+    }
+
+    boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * Updates the number of connected centrals. When one disconnected, a new burst starts so that
+     * it can reconnect quickly.
+     */
+    void setConnectionCount(int connections, long now) {
+        if (connections < mConnections) {
+            mBurstStart = now;
+        }
+        mConnections = connections;
+    }
+
+    /**
+     * Returns the profile the advertiser should run with right now, never adaptive.
+     */
+    int getProfile(long now) {
+        if (mPaused || (mMaxConnections > 0 && mConnections >= mMaxConnections)) {
+            return PROFILE_PAUSED;
+        }
+        if (mProfile != PROFILE_ADAPTIVE) {
+            return mProfile;
+        }
+        long elapsed = now - mBurstStart;
+        if (elapsed < mBurstNanos) {
+            return PROFILE_LOW_LATENCY;
+        }
+        if (elapsed < 2 * mBurstNanos) {
+            return PROFILE_BALANCED;
+        }
+        return PROFILE_LOW_POWER;
+    }
+
+    /**
+     * Returns the time at which {@link #getProfile} changes on its own, or Long.MAX_VALUE when it
+     * only changes with the connection count.
+     */
+    long getNextChange(long now) {
+        if (mProfile != PROFILE_ADAPTIVE || getProfile(now) == PROFILE_PAUSED) {
+            return Long.MAX_VALUE;
+        }
+        long elapsed = now - mBurstStart;
+        if (elapsed < mBurstNanos) {
+            return mBurstStart + mBurstNanos;
+        }
+        if (elapsed < 2 * mBurstNanos) {
+            return mBurstStart + 2 * mBurstNanos;
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,193 @@
+package com.reactnative.peripheral;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Extended and periodic advertising sets by the id JS gave them, running next to the legacy
+ * advertisement. The stack reports every data update of a set through a callback before it takes
+ * the next one of that kind, so updates made while one is in flight are held: latest-value-wins,
+ * an update replaced before it went out completes along with the one that replaced it.
+ *
+ * @param <C> callback identifying the set to the stack
+ * @param <S> set, known once the stack started it
+ * @param <P> completion of a start or an update
+ */
+class AdvertisingSets<C, S, P> {
+
+    static final int DATA = 0;
+    static final int SCAN_RESPONSE = 1;
+    static final int PERIODIC_DATA = 2;
+    private static final int KINDS = 3;
+
+    /**
+     * What goes into an advertisement, scan response or periodic advertisement.
+     */
+    static final class Payload {
+        boolean includeDeviceName;
+        boolean includeTxPower;
+        final ArrayList<UUID> serviceUuids = new ArrayList<>();
+        final LinkedHashMap<UUID, byte[]> serviceData = new LinkedHashMap<>();
+        final LinkedHashMap<Integer, byte[]> manufacturerData = new LinkedHashMap<>();
+
+        /**
+         * Returns a copy to change, leaving the payload an entry holds as it is.
+         */
+        Payload copy() {
+            Payload copy = new Payload();
+            copy.includeDeviceName = includeDeviceName;
+            copy.includeTxPower = includeTxPower;
+            copy.serviceUuids.addAll(serviceUuids);
+            copy.serviceData.putAll(serviceData);
+            copy.manufacturerData.putAll(manufacturerData);
+            return copy;
+        }
+    }
+
+    static final class Entry<C, S, P> {
+        final String id;
+        final C callback;
+        /** Null until the stack started the set. */
+        S set;
+        /** Completes once the stack started the set, null afterwards. */
+        P started;
+        private final ArrayList<Slot<P>> mSlots = new ArrayList<>();
+
+        Entry(String id, C callback, P started) {
+            this.id = id;
+            this.callback = callback;
+            this.started = started;
+            for (int kind = 0; kind < KINDS; kind++) {
+                mSlots.add(new Slot<P>());
+            }
+        }
+
+        /**
+         * Returns the latest payload of the kind, null when the set has none. Not to be changed,
+         * it may still be waiting to be handed to the stack.
+         */
+        Payload getPayload(int kind) {
+            return mSlots.get(kind).payload;
+        }
+
+        /**
+         * Sets the payload the set is started with, nothing is handed to the stack.
+         */
+        void setPayload(int kind, Payload payload) {
+            Slot<P> slot = mSlots.get(kind);
+            slot.payload = payload;
+            slot.accepted = payload;
+        }
+
+        /**
+         * Replaces the payload of the kind. Returns true when it has to be handed to the stack now,
+         * false when it's held until the update in flight was reported.
+         */
+        boolean update(int kind, Payload payload, P completion) {
+            Slot<P> slot = mSlots.get(kind);
+            slot.payload = payload;
+            slot.waiting.add(completion);
+            if (slot.inFlight) {
+                return false;
+            }
+            slot.send();
+            return true;
+        }
+
+        /**
+         * Called when the stack reported the update of the kind in flight, adds the completions it
+         * stands for to completed. A rejected payload is replaced by the last one accepted, unless
+         * another update is held. Returns true when a held update is in flight now, to be handed
+         * to the stack.
+         */
+        boolean onUpdated(int kind, boolean success, List<P> completed) {
+            Slot<P> slot = mSlots.get(kind);
+            completed.addAll(slot.sending);
+            slot.sending.clear();
+            slot.inFlight = false;
+            if (success) {
+                slot.accepted = slot.sent;
+            }
+            slot.sent = null;
+            if (slot.waiting.isEmpty()) {
+                if (!success) {
+                    slot.payload = slot.accepted;
+                }
+                return false;
+            }
+            slot.send();
+            return true;
+        }
+
+        /**
+         * Returns every completion not completed yet, for a set that stopped or failed.
+         */
+        List<P> drain() {
+            ArrayList<P> completions = new ArrayList<>();
+            if (started != null) {
+                completions.add(started);
+                started = null;
+            }
+            for (Slot<P> slot : mSlots) {
+                completions.addAll(slot.sending);
+                completions.addAll(slot.waiting);
+                slot.sending.clear();
+                slot.waiting.clear();
+                slot.inFlight = false;
+            }
+            return completions;
+        }
+    }
+
+    private static final class Slot<P> {
+        /** Latest payload, the one in flight or held. */
+        Payload payload;
+        /** Last payload the stack accepted. */
+        Payload accepted;
+        /** Payload in flight. */
+        Payload sent;
+        boolean inFlight;
+        final ArrayList<P> sending = new ArrayList<>();
+        final ArrayList<P> waiting = new ArrayList<>();
+
+        void send() {
+            sending.addAll(waiting);
+            waiting.clear();
+            sent = payload;
+            inFlight = true;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry<C, S, P>> mEntries = new LinkedHashMap<>();
+
+    /**
+     * Returns null when a set with the id already exists.
+     */
+    Entry<C, S, P> add(String id, C callback, P started) {
+        if (mEntries.containsKey(id)) {
+            return null;
+        }
+        Entry<C, S, P> entry = new Entry<>(id, callback, started);
+        mEntries.put(id, entry);
+        return entry;
+    }
+
+    Entry<C, S, P> get(String id) {
+        return mEntries.get(id);
+    }
+
+    Entry<C, S, P> remove(String id) {
+        return mEntries.remove(id);
+    }
+
+    Collection<Entry<C, S, P>> getAll() {
+        return new ArrayList<>(mEntries.values());
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+}
@@ -0,0 +1,126 @@
+package com.reactnative.peripheral;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.UUID;
+
+/**
+ * Compact integer handles for characteristics, assigned when their service is added. Handles
+ * index straight into per-characteristic tables and are handed to JS, so the hot paths never
+ * have to parse or format UUIDs.
+ *
+ * Handles are not reused after their service is removed, until the registry is cleared.
+ *
+ * @param <A> attribute a handle refers to
+ */
+class AttributeRegistry<A> {
+
+    static final int INVALID_HANDLE = -1;
+
+    private final ArrayList<Entry<A>> mEntries = new ArrayList<>();
+    private final IdentityHashMap<A, Integer> mHandles = new IdentityHashMap<>();
+    private final HashMap<UUID, HashMap<UUID, Integer>> mHandlesByUuid = new HashMap<>();
+
+    int register(UUID serviceUuid, UUID characteristicUuid, A attribute) {
+        HashMap<UUID, Integer> serviceHandles = mHandlesByUuid.get(serviceUuid);
+        if (serviceHandles == null) {
+            serviceHandles = new HashMap<>();
+            mHandlesByUuid.put(serviceUuid, serviceHandles);
+        }
+        Integer existing = serviceHandles.get(characteristicUuid);
+        if (existing != null) {
+            return existing;
+        }
+        int handle = mEntries.size();
+        mEntries.add(new Entry<>(serviceUuid, characteristicUuid, attribute));
+        mHandles.put(attribute, handle);
+        serviceHandles.put(characteristicUuid, handle);
+        return handle;
+    }
+
+    /**
+     * Removes every characteristic of the service and returns their handles.
+     */
+    int[] unregisterService(UUID serviceUuid) {
+        HashMap<UUID, Integer> serviceHandles = mHandlesByUuid.remove(serviceUuid);
+        if (serviceHandles == null) {
+            return new int[0];
+        }
+        int[] handles = new int[serviceHandles.size()];
+        int i = 0;
+        for (int handle : serviceHandles.values()) {
+            mHandles.remove(mEntries.get(handle).attribute);
+            mEntries.set(handle, null);
+            handles[i++] = handle;
+        }
+        return handles;
+    }
+
+    void clear() {
+        mEntries.clear();
+        mHandles.clear();
+        mHandlesByUuid.clear();
+    }
+
+    int getHandle(A attribute) {
+        Integer handle = mHandles.get(attribute);
+        return handle != null ? handle : INVALID_HANDLE;
+    }
+
+    int getHandle(UUID serviceUuid, UUID characteristicUuid) {
+        HashMap<UUID, Integer> serviceHandles = mHandlesByUuid.get(serviceUuid);
+        Integer handle = serviceHandles != null ? serviceHandles.get(characteristicUuid) : null;
+        return handle != null ? handle : INVALID_HANDLE;
+    }
+
+    /**
+     * Looks up a characteristic by its UUID alone, in whichever service registered it first.
+     */
+    int findHandle(UUID characteristicUuid) {
+        for (int handle = 0; handle < mEntries.size(); handle++) {
+            Entry<A> entry = mEntries.get(handle);
+            if (entry != null && entry.characteristicUuid.equals(characteristicUuid)) {
+                return handle;
+            }
+        }
+        return INVALID_HANDLE;
+    }
+
+    A get(int handle) {
+        Entry<A> entry = getEntry(handle);
+        return entry != null ? entry.attribute : null;
+    }
+
+    String getServiceUuid(int handle) {
+        Entry<A> entry = getEntry(handle);
+        return entry != null ? entry.serviceUuidString : null;
+    }
+
+    String getCharacteristicUuid(int handle) {
+        Entry<A> entry = getEntry(handle);
+        return entry != null ? entry.characteristicUuidString : null;
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    private Entry<A> getEntry(int handle) {
+        return handle >= 0 && handle < mEntries.size() ? mEntries.get(handle) : null;
+    }
+
+    private static class Entry<A> {
+        final UUID characteristicUuid;
+        final String serviceUuidString;
+        final String characteristicUuidString;
+        final A attribute;
+
+        Entry(UUID serviceUuid, UUID characteristicUuid, A attribute) {
+            this.characteristicUuid = characteristicUuid;
+            this.serviceUuidString = serviceUuid.toString();
+            this.characteristicUuidString = characteristicUuid.toString();
+            this.attribute = attribute;
+        }
+    }
+}
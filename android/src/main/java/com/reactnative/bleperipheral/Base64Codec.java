@@ -0,0 +1,91 @@
+package com.reactnative.peripheral;
+
+import java.util.Arrays;
+
+/**
+ * Base64 for the values passed to and from JS. Decodes like android.util.Base64 with DEFAULT
+ * flags, skipping characters outside the alphabet, and encodes on a single line like NO_WRAP.
+ * Unlike android.util.Base64 it runs on a plain JVM, so the dispatch path can be benchmarked
+ * off-device.
+ */
+final class Base64Codec {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int SKIP = -1;
+    private static final int EQUALS = -2;
+    private static final int[] DECODE = new int[128];
+
+    static {
+        Arrays.fill(DECODE, SKIP);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE[ALPHABET[i]] = i;
+        }
+        DECODE['='] = EQUALS;
+    }
+
+    private Base64Codec() {
+    }
+
+    static String encode(byte[] value) {
+        char[] out = new char[(value.length + 2) / 3 * 4];
+        int i = 0;
+        int o = 0;
+        for (; i + 2 < value.length; i += 3) {
+            int bits = (value[i] & 0xff) << 16 | (value[i + 1] & 0xff) << 8 | (value[i + 2] & 0xff);
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+            out[o++] = ALPHABET[(bits >>> 6) & 0x3f];
+            out[o++] = ALPHABET[bits & 0x3f];
+        }
+        int remaining = value.length - i;
+        if (remaining > 0) {
+            int bits = (value[i] & 0xff) << 16 | (remaining == 2 ? (value[i + 1] & 0xff) << 8 : 0);
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+            out[o++] = remaining == 2 ? ALPHABET[(bits >>> 6) & 0x3f] : '=';
+            out[o] = '=';
+        }
+        return new String(out);
+    }
+
+    /**
+     * Decodes the value, ignoring anything after the first '='.
+     *
+     * @throws IllegalArgumentException when the input ends with a single dangling character
+     */
+    static byte[] decode(String value) {
+        byte[] out = new byte[value.length() / 4 * 3 + 3];
+        int o = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            int digit = c < 128 ? DECODE[c] : SKIP;
+            if (digit == EQUALS) {
+                break;
+            }
+            if (digit == SKIP) {
+                continue;
+            }
+            bits = bits << 6 | digit;
+            if (++count == 4) {
+                out[o++] = (byte) (bits >> 16);
+                out[o++] = (byte) (bits >> 8);
+                out[o++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 1) {
+            throw new IllegalArgumentException("bad base-64");
+        }
+        if (count == 2) {
+            out[o++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            out[o++] = (byte) (bits >> 10);
+            out[o++] = (byte) (bits >> 2);
+        }
+        return o == out.length ? out : Arrays.copyOf(out, o);
+    }
+}
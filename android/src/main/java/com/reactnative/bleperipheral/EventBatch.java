@@ -0,0 +1,88 @@
+package com.reactnative.peripheral;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Events waiting to be sent to JS together. A batch goes out once it holds the maximum number of
+ * events, or once its first event waited for the maximum delay, whichever comes first.
+ *
+ * @param <P> event parameters
+ */
+class EventBatch<P> {
+
+    static final int DEFAULT_MAX_EVENTS = 64;
+    /** In milliseconds, about one frame at 60 Hz. */
+    static final long DEFAULT_MAX_DELAY = 16;
+
+    interface Sink<P> {
+        /**
+         * Sends the events, in the order they were added. The lists are only valid during the call.
+         */
+        void send(List<String> names, List<P> params);
+
+        /**
+         * Calls {@link #flush} after the delay, in place of any flush scheduled before.
+         */
+        void scheduleFlush(long delayMillis);
+    }
+
+    private final Sink<P> mSink;
+    private final ArrayList<String> mNames = new ArrayList<>();
+    private final ArrayList<P> mParams = new ArrayList<>();
+    private boolean mEnabled;
+    private int mMaxEvents = DEFAULT_MAX_EVENTS;
+    private long mMaxDelay = DEFAULT_MAX_DELAY;
+
+    EventBatch(Sink<P> sink) {
+        mSink = sink;
+    }
+
+    /**
+     * Turns batching on or off. Turning it off sends the events batched so far.
+     */
+    void configure(boolean enabled, int maxEvents, long maxDelayMillis) {
+        mEnabled = enabled;
+        mMaxEvents = Math.max(1, maxEvents);
+        mMaxDelay = Math.max(0, maxDelayMillis);
+        if (!enabled) {
+            flush();
+        }
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    void add(String name, P params) {
+        mNames.add(name);
+        mParams.add(params);
+        if (mNames.size() >= mMaxEvents) {
+            flush();
+        } else if (mNames.size() == 1) {
+            mSink.scheduleFlush(mMaxDelay);
+        }
+    }
+
+    /**
+     * Sends the events batched so far, if any.
+     */
+    void flush() {
+        if (mNames.isEmpty()) {
+            return;
+        }
+        try {
+            mSink.send(mNames, mParams);
+        } finally {
+            clear();
+        }
+    }
+
+    /**
+     * Drops the events batched so far.
+     */
+    void clear() {
+        mNames.clear();
+        mParams.clear();
+    }
+}
@@ -0,0 +1,67 @@
+package com.reactnative.peripheral;
+
+/**
+ * Characteristic properties and permissions as named by JS. The values are the ones of
+ * BluetoothGattCharacteristic, repeated here so parsing doesn't need the Android SDK.
+ */
+final class GattAttributes {
+
+    static final int PROPERTY_BROADCAST = 0x01;
+    static final int PROPERTY_READ = 0x02;
+    static final int PROPERTY_WRITE_NO_RESPONSE = 0x04;
+    static final int PROPERTY_WRITE = 0x08;
+    static final int PROPERTY_NOTIFY = 0x10;
+    static final int PROPERTY_INDICATE = 0x20;
+    static final int PROPERTY_SIGNED_WRITE = 0x40;
+    static final int PROPERTY_EXTENDED_PROPS = 0x80;
+
+    static final int PERMISSION_READ = 0x01;
+    static final int PERMISSION_READ_ENCRYPTED = 0x02;
+    static final int PERMISSION_WRITE = 0x10;
+    static final int PERMISSION_WRITE_ENCRYPTED = 0x20;
+
+    private GattAttributes() {
+    }
+
+    /**
+     * Returns the property with the given name, or -1 when there's none.
+     */
+    static int getPropertyValue(String property) {
+        switch (property) {
+            case "broadcast":
+                return PROPERTY_BROADCAST;
+            case "read":
+                return PROPERTY_READ;
+            case "writeWithoutResponse":
+                return PROPERTY_WRITE_NO_RESPONSE;
+            case "write":
+                return PROPERTY_WRITE;
+            case "notify":
+                return PROPERTY_NOTIFY;
+            case "indicate":
+                return PROPERTY_INDICATE;
+            case "authenticatedSignedWrites":
+                return PROPERTY_SIGNED_WRITE;
+            case "extendedProperties":
+                return PROPERTY_EXTENDED_PROPS;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the permission with the given name, or -1 when there's none.
+     */
+    static int getPermissionValue(String permission) {
+        switch (permission) {
+            case "readable":
+                return PERMISSION_READ;
+            case "writeable":
+                return PERMISSION_WRITE;
+            case "readEncryptionRequired":
+                return PERMISSION_READ_ENCRYPTED;
+            case "writeEncryptionRequired":
+                return PERMISSION_WRITE_ENCRYPTED;
+        }
+        return -1;
+    }
+}
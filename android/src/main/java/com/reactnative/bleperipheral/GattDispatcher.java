@@ -0,0 +1,769 @@
+package com.reactnative.peripheral;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves the characteristic requests of connected devices: reads, writes, prepared writes, client
+ * configuration and notifications. The stack is reached through a {@link Backend} and JS through a
+ * {@link Listener}, so the same logic runs against BluetoothGattServer on a device and against a
+ * simulated server on a plain JVM.
+ *
+ * Not thread-safe, every method has to be called from the same thread.
+ *
+ * @param <D> connected device
+ * @param <A> characteristic
+ */
+class GattDispatcher<D, A> {
+
+    static final int GATT_SUCCESS = 0x00;
+    static final int GATT_REQUEST_NOT_SUPPORTED = 0x06;
+    static final int GATT_INVALID_OFFSET = 0x07;
+    static final int GATT_PREPARE_QUEUE_FULL = 0x09;
+    static final int GATT_INVALID_ATTRIBUTE_LENGTH = 0x0D;
+    static final int GATT_UNLIKELY_ERROR = 0x0E;
+
+    static final byte[] DISABLE_NOTIFICATION_VALUE = {0x00, 0x00};
+    static final byte[] ENABLE_NOTIFICATION_VALUE = {0x01, 0x00};
+    static final byte[] ENABLE_INDICATION_VALUE = {0x02, 0x00};
+
+    /** How long JS has to respond to a request before it's answered natively with an error, in ms. */
+    static final long DEFAULT_REQUEST_TIMEOUT = 10000;
+
+    /**
+     * The GATT server the requests come from.
+     */
+    interface Backend<D, A> {
+        String getAddress(D device);
+
+        int getProperties(A characteristic);
+
+        byte[] getValue(A characteristic);
+
+        void setValue(A characteristic, byte[] value);
+
+        void sendResponse(D device, int requestId, int status, int offset, byte[] value);
+
+        /**
+         * Hands a notification, or an indication when confirm is set, to the stack. Returns false
+         * when it was not accepted. The value may be one frame of a longer one, the value the
+         * characteristic holds stays as it is.
+         */
+        boolean notify(D device, A characteristic, byte[] value, boolean confirm);
+    }
+
+    /**
+     * Receives what has to be forwarded to JS.
+     */
+    interface Listener<D, A> {
+        void onReadRequest(int requestId, int handle, A characteristic, int offset);
+
+        void onWriteRequest(int requestId, int handle, A characteristic, int offset, byte[] value,
+                            boolean responseNeeded);
+
+        void onSubscriptionChanged(D device, int handle, boolean subscribed);
+
+        void onMtuChanged(D device, int mtu);
+
+        void onPhyChanged(D device, int txPhy, int rxPhy);
+
+        void onRequestTimedOut(int requestId);
+
+        void onWriteSinkProgress(int handle, WriteSink sink);
+
+        /**
+         * Called once the sink was closed, with the error that ended it or null.
+         */
+        void onWriteSinkClosed(int handle, WriteSink sink, String error);
+
+        /**
+         * Asks for {@link #sweepTimeouts} to be called after the delay.
+         */
+        void scheduleTimeoutSweep(long delayNanos);
+
+        /**
+         * Asks for {@link #flushNotifications} to be called after the delay.
+         */
+        void scheduleNotificationFlush(long delayNanos);
+    }
+
+    static class Connection<D> {
+        static final int DEFAULT_MTU = 23;
+
+        final D device;
+        int mtu = DEFAULT_MTU;
+        int txPhy = Phy.LE_1M;
+        int rxPhy = Phy.LE_1M;
+
+        Connection(D device) {
+            this.device = device;
+        }
+    }
+
+    private final Backend<D, A> mBackend;
+    private final Listener<D, A> mListener;
+    private final AttributeRegistry<A> mAttributes = new AttributeRegistry<>();
+    private final ReadValueCache mReadCache = new ReadValueCache();
+    private final ReadSequences mReadSequences = new ReadSequences();
+    private final PreparedWrites<A> mPreparedWrites = new PreparedWrites<>();
+    private final SubscriptionTable mSubscriptions = new SubscriptionTable();
+    private final GattStats mStats = new GattStats();
+    private final PendingRequests<GattRequest<D, A>> mPendingRequests = new PendingRequests<>();
+    private final HashMap<String, Connection<D>> mConnections = new HashMap<>();
+    private final HashMap<Integer, WriteSink> mWriteSinks = new HashMap<>();
+    private final HashMap<Integer, ValueSchema> mSchemas = new HashMap<>();
+    private final NotificationQueue<D, A> mNotificationQueue;
+    private final NotifyPolicies mNotifyPolicies;
+    private long mRequestTimeoutNanos = DEFAULT_REQUEST_TIMEOUT * 1000000L;
+    private boolean mTimeoutSweepScheduled;
+    private TrafficRecorder mRecorder;
+
+    GattDispatcher(Backend<D, A> backend, Listener<D, A> listener) {
+        mBackend = backend;
+        mListener = listener;
+        mNotificationQueue = new NotificationQueue<>(new NotificationQueue.Sender<D, A>() {
+            @Override
+            public String getAddress(D device) {
+                return mBackend.getAddress(device);
+            }
+
+            @Override
+            public int getMaxPayload(D device) {
+                return getMtu(mBackend.getAddress(device)) - 3;
+            }
+
+            @Override
+            public boolean send(D device, A characteristic, byte[] value) {
+                int handle = mAttributes.getHandle(characteristic);
+                // indicate or notify, whichever the device enabled in its CCCD
+                boolean confirm = mSubscriptions.get(mBackend.getAddress(device), handle) == SubscriptionTable.INDICATE;
+                boolean accepted = mBackend.notify(device, characteristic, value, confirm);
+                record(TrafficRecorder.NOTIFICATION, System.nanoTime(), device, 0, handle, 0, 0,
+                        (accepted ? TrafficRecorder.FLAG_SUCCESS : 0) | (confirm ? TrafficRecorder.FLAG_CONFIRM : 0),
+                        value);
+                if (!accepted) {
+                    return false;
+                }
+                mStats.onNotificationFrame(handle, value.length);
+                return true;
+            }
+        });
+        mNotifyPolicies = new NotifyPolicies(new NotifyPolicies.Sender() {
+            @Override
+            public void send(final int handle, byte[] value, final NotificationQueue.Completion completion) {
+                A characteristic = mAttributes.get(handle);
+                if (characteristic == null) {
+                    completion.onDropped();
+                    return;
+                }
+                mBackend.setValue(characteristic, value);
+                // the completion is called once the value has actually been sent to every subscriber
+                mNotificationQueue.notify(getSubscribedDevices(handle), characteristic, value,
+                        new NotificationQueue.Completion() {
+                            @Override
+                            protected void onComplete(int sent, int failed) {
+                                mStats.onNotificationsComplete(handle, sent, failed);
+                                completion.onComplete(sent, failed);
+                            }
+                        });
+            }
+
+            @Override
+            public void onSkipped(int handle) {
+                mStats.onNotificationSkipped(handle);
+            }
+
+            @Override
+            public void scheduleFlush(long delayNanos) {
+                mListener.scheduleNotificationFlush(delayNanos);
+            }
+        });
+    }
+
+    AttributeRegistry<A> getAttributes() {
+        return mAttributes;
+    }
+
+    ReadValueCache getReadCache() {
+        return mReadCache;
+    }
+
+    GattStats getStats() {
+        return mStats;
+    }
+
+    void setRequestTimeout(long timeoutNanos) {
+        mRequestTimeoutNanos = timeoutNanos;
+    }
+
+    int getPendingRequestCount() {
+        return mPendingRequests.size();
+    }
+
+    void setNotificationWindow(int window) {
+        mNotificationQueue.setWindow(window);
+    }
+
+    /**
+     * Records all traffic from now on, or stops recording when null. Doesn't close the previous
+     * recorder.
+     */
+    void setRecorder(TrafficRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    TrafficRecorder getRecorder() {
+        return mRecorder;
+    }
+
+    void onConnected(D device) {
+        record(TrafficRecorder.CONNECTED, System.nanoTime(), device, 0, 0, 0, 0, 0, null);
+        getOrCreateConnection(device);
+    }
+
+    void onDisconnected(D device) {
+        record(TrafficRecorder.DISCONNECTED, System.nanoTime(), device, 0, 0, 0, 0, 0, null);
+        String address = mBackend.getAddress(device);
+        mConnections.remove(address);
+        mReadSequences.clear(address);
+        mPreparedWrites.cancel(address);
+        mNotificationQueue.removeDevice(address);
+        for (int handle : mSubscriptions.removeDevice(address)) {
+            mListener.onSubscriptionChanged(device, handle, false);
+        }
+    }
+
+    Connection<D> getConnection(String deviceAddress) {
+        return mConnections.get(deviceAddress);
+    }
+
+    int getConnectionCount() {
+        return mConnections.size();
+    }
+
+    Collection<Connection<D>> getConnections() {
+        return mConnections.values();
+    }
+
+    void onMtuChanged(D device, int mtu) {
+        record(TrafficRecorder.MTU_CHANGED, System.nanoTime(), device, 0, 0, 0, mtu, 0, null);
+        getOrCreateConnection(device).mtu = mtu;
+        mListener.onMtuChanged(device, mtu);
+    }
+
+    /**
+     * Called with the PHYs in use after they were read or updated, tells the listener if they changed.
+     */
+    void onPhyChanged(D device, int txPhy, int rxPhy) {
+        record(TrafficRecorder.PHY_CHANGED, System.nanoTime(), device, 0, 0, 0, txPhy << 8 | rxPhy, 0, null);
+        Connection<D> connection = getOrCreateConnection(device);
+        if (connection.txPhy == txPhy && connection.rxPhy == rxPhy) {
+            return;
+        }
+        connection.txPhy = txPhy;
+        connection.rxPhy = rxPhy;
+        mListener.onPhyChanged(device, txPhy, rxPhy);
+    }
+
+    /**
+     * Serves the read from the value cache or a long read in progress, otherwise forwards it to JS.
+     */
+    void onReadRequest(D device, int requestId, int offset, A characteristic, long receivedAt) {
+        int handle = mAttributes.getHandle(characteristic);
+        mStats.onRequest(handle, 0);
+        String address = mBackend.getAddress(device);
+        if (offset > 0) {
+            // blob read continuing a long read, serve the next slice of the value resolved at offset 0
+            byte[] sequenceValue = mReadSequences.get(address, handle);
+            if (sequenceValue != null) {
+                record(TrafficRecorder.READ_REQUEST, receivedAt, device, requestId, handle, offset,
+                        TrafficRecorder.SOURCE_SEQUENCE, 0, null);
+                sendReadResponse(device, requestId, handle, offset, sequenceValue, receivedAt);
+                return;
+            }
+        }
+        byte[] cachedValue = mReadCache.get(handle);
+        if (cachedValue != null) {
+            mStats.onCacheHit(handle);
+            record(TrafficRecorder.READ_REQUEST, receivedAt, device, requestId, handle, offset,
+                    TrafficRecorder.SOURCE_CACHE, 0, null);
+            mReadSequences.start(address, handle, cachedValue);
+            sendReadResponse(device, requestId, handle, offset, cachedValue, receivedAt);
+            return;
+        }
+        record(TrafficRecorder.READ_REQUEST, receivedAt, device, requestId, handle, offset, TrafficRecorder.SOURCE_JS,
+                0, null);
+        addPendingRequest(new GattRequest<>(requestId, offset, device, characteristic, handle, true, receivedAt));
+        mListener.onReadRequest(requestId, handle, characteristic, offset);
+    }
+
+    void onWriteRequest(D device, int requestId, A characteristic, boolean preparedWrite, boolean responseNeeded,
+                        int offset, byte[] value, long receivedAt) {
+        int handle = mAttributes.getHandle(characteristic);
+        mStats.onRequest(handle, value != null ? value.length : 0);
+        record(TrafficRecorder.WRITE_REQUEST, receivedAt, device, requestId, handle, offset, 0,
+                (preparedWrite ? TrafficRecorder.FLAG_PREPARED : 0)
+                        | (responseNeeded ? TrafficRecorder.FLAG_RESPONSE_NEEDED : 0), value);
+        String address = mBackend.getAddress(device);
+        mReadSequences.end(address, handle);
+        WriteSink sink = preparedWrite ? null : mWriteSinks.get(handle);
+        if (sink != null) {
+            // bulk upload, stored natively and acked once it's in the file
+            int status = writeToSink(handle, sink, value);
+            if (responseNeeded) {
+                sendResponse(device, requestId, status, offset, null);
+                mStats.onResponse(handle, System.nanoTime() - receivedAt, 0);
+            }
+            return;
+        }
+        if (preparedWrite) {
+            // queue the fragment and ack it natively, JS gets the whole value on execute
+            boolean queued = mPreparedWrites.add(address, characteristic, offset, value);
+            if (responseNeeded) {
+                sendResponse(device, requestId, queued ? GATT_SUCCESS : GATT_PREPARE_QUEUE_FULL, offset,
+                        value);
+                mStats.onResponse(handle, System.nanoTime() - receivedAt, value != null ? value.length : 0);
+            }
+            return;
+        }
+        if (responseNeeded) {
+            addPendingRequest(new GattRequest<>(requestId, offset, device, characteristic, handle, false, receivedAt));
+        }
+        mListener.onWriteRequest(requestId, handle, characteristic, offset, value, responseNeeded);
+    }
+
+    void onExecuteWrite(D device, int requestId, boolean execute, long receivedAt) {
+        record(TrafficRecorder.EXECUTE_WRITE, receivedAt, device, requestId, 0, 0, 0,
+                execute ? TrafficRecorder.FLAG_SUCCESS : 0, null);
+        String address = mBackend.getAddress(device);
+        if (!execute) {
+            mPreparedWrites.cancel(address);
+            sendResponse(device, requestId, GATT_SUCCESS, 0, null);
+            return;
+        }
+        LinkedHashMap<A, byte[]> values = mPreparedWrites.execute(address);
+        int status = GATT_SUCCESS;
+        Iterator<Map.Entry<A, byte[]>> iterator = values.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<A, byte[]> entry = iterator.next();
+            int handle = mAttributes.getHandle(entry.getKey());
+            WriteSink sink = mWriteSinks.get(handle);
+            if (sink != null) {
+                int sinkStatus = writeToSink(handle, sink, entry.getValue());
+                if (status == GATT_SUCCESS) {
+                    status = sinkStatus;
+                }
+                iterator.remove();
+            }
+        }
+        if (values.isEmpty()) {
+            sendResponse(device, requestId, status, 0, null);
+            return;
+        }
+        // every written characteristic gets one coalesced write request sharing the execute request id,
+        // the execute write is answered once JS has responded to all of them
+        GattRequest<D, A> request = new GattRequest<>(requestId, 0, device, null, AttributeRegistry.INVALID_HANDLE,
+                false, receivedAt);
+        request.pendingResponses = values.size();
+        request.status = status;
+        addPendingRequest(request);
+        for (Map.Entry<A, byte[]> entry : values.entrySet()) {
+            int handle = mAttributes.getHandle(entry.getKey());
+            mReadSequences.end(address, handle);
+            mListener.onWriteRequest(requestId, handle, entry.getKey(), 0, entry.getValue(), true);
+        }
+    }
+
+    /**
+     * Answers a read of the characteristic's client configuration descriptor. Every device reads
+     * back its own configuration.
+     */
+    void onConfigurationRead(D device, int requestId, int offset, A characteristic) {
+        record(TrafficRecorder.DESCRIPTOR_READ, System.nanoTime(), device, requestId,
+                mAttributes.getHandle(characteristic), offset, 0, 0, null);
+        if (offset != 0) {
+            sendResponse(device, requestId, GATT_INVALID_OFFSET, offset, null);
+            return;
+        }
+        int handle = mAttributes.getHandle(characteristic);
+        byte[] value = getConfigurationValue(mSubscriptions.get(mBackend.getAddress(device), handle));
+        sendResponse(device, requestId, GATT_SUCCESS, offset, value);
+    }
+
+    /**
+     * Subscribes or unsubscribes the device. The configuration is kept per device instead of on
+     * the shared descriptor.
+     */
+    void onConfigurationWrite(D device, int requestId, A characteristic, boolean responseNeeded, byte[] value) {
+        record(TrafficRecorder.DESCRIPTOR_WRITE, System.nanoTime(), device, requestId,
+                mAttributes.getHandle(characteristic), 0, 0, responseNeeded ? TrafficRecorder.FLAG_RESPONSE_NEEDED : 0,
+                value);
+        int properties = mBackend.getProperties(characteristic);
+        boolean supportsNotifications = (properties & GattAttributes.PROPERTY_NOTIFY) != 0;
+        boolean supportsIndications = (properties & GattAttributes.PROPERTY_INDICATE) != 0;
+        int status;
+        int configuration = -1;
+        if (!(supportsNotifications || supportsIndications)) {
+            status = GATT_REQUEST_NOT_SUPPORTED;
+        } else if (value == null || value.length != 2) {
+            status = GATT_INVALID_ATTRIBUTE_LENGTH;
+        } else if (Arrays.equals(value, DISABLE_NOTIFICATION_VALUE)) {
+            status = GATT_SUCCESS;
+            configuration = SubscriptionTable.NONE;
+        } else if (supportsNotifications && Arrays.equals(value, ENABLE_NOTIFICATION_VALUE)) {
+            status = GATT_SUCCESS;
+            configuration = SubscriptionTable.NOTIFY;
+        } else if (supportsIndications && Arrays.equals(value, ENABLE_INDICATION_VALUE)) {
+            status = GATT_SUCCESS;
+            configuration = SubscriptionTable.INDICATE;
+        } else {
+            status = GATT_REQUEST_NOT_SUPPORTED;
+        }
+        if (configuration != -1) {
+            int handle = mAttributes.getHandle(characteristic);
+            if (handle != AttributeRegistry.INVALID_HANDLE) {
+                int previous = mSubscriptions.set(mBackend.getAddress(device), handle, configuration);
+                if (previous == SubscriptionTable.NONE && configuration != SubscriptionTable.NONE) {
+                    mListener.onSubscriptionChanged(device, handle, true);
+                } else if (previous != SubscriptionTable.NONE && configuration == SubscriptionTable.NONE) {
+                    mListener.onSubscriptionChanged(device, handle, false);
+                }
+            }
+        }
+        if (responseNeeded) {
+            sendResponse(device, requestId, status, 0, null);
+        }
+    }
+
+    void onNotificationSent(D device, boolean success) {
+        record(TrafficRecorder.NOTIFICATION_SENT, System.nanoTime(), device, 0, 0, 0, 0,
+                success ? TrafficRecorder.FLAG_SUCCESS : 0, null);
+        mNotificationQueue.onSent(mBackend.getAddress(device), success);
+    }
+
+    /**
+     * Answers a request with the status and Base64 value JS responded with. Returns false when the
+     * request does not exist (anymore).
+     */
+    boolean respond(String requestIdString, String status, String value) {
+        return respond(requestIdString, status, value != null ? Base64Codec.decode(value) : null);
+    }
+
+    /**
+     * Like {@link #respond(String, String, String)}, with a value that was already decoded or packed.
+     */
+    boolean respond(String requestIdString, String status, byte[] value) {
+        int requestId;
+        try {
+            requestId = Integer.parseInt(requestIdString);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        record(TrafficRecorder.JS_RESPONSE, System.nanoTime(), null, requestId, 0, 0, 0,
+                "success".equalsIgnoreCase(status) ? TrafficRecorder.FLAG_SUCCESS : 0, value);
+        GattRequest<D, A> request = mPendingRequests.get(requestId);
+        if (request == null) {
+            return false;
+        }
+        byte[] valueArr = null;
+        if (value != null && request.characteristic != null) {
+            valueArr = value;
+            mBackend.setValue(request.characteristic, valueArr);
+        }
+        int statusInt = "success".equalsIgnoreCase(status) ? GATT_SUCCESS : GATT_INVALID_OFFSET;
+        if (statusInt != GATT_SUCCESS && request.status == GATT_SUCCESS) {
+            request.status = statusInt;
+        }
+        if (--request.pendingResponses > 0) {
+            // an executed prepared write still waiting for other characteristics
+            return true;
+        }
+        statusInt = request.status;
+        if (mPendingRequests.remove(requestId) != request) {
+            // timed out in the meantime and already answered
+            return false;
+        }
+        if (request.read && statusInt == GATT_SUCCESS) {
+            byte[] fullValue = mBackend.getValue(request.characteristic);
+            if (valueArr != null) {
+                mReadCache.put(request.handle, valueArr);
+            }
+            mReadSequences.start(mBackend.getAddress(request.device), request.handle, fullValue);
+            sendReadResponse(request.device, request.requestId, request.handle, request.offset, fullValue,
+                    request.receivedAt);
+        } else {
+            sendResponse(request.device, request.requestId, statusInt, request.offset, null);
+            mStats.onResponse(request.handle, System.nanoTime() - request.receivedAt, 0);
+        }
+        return true;
+    }
+
+    /**
+     * Answers every request JS didn't respond to in time, then schedules the next sweep.
+     */
+    void sweepTimeouts(long now) {
+        ArrayList<GattRequest<D, A>> expired = new ArrayList<>();
+        mPendingRequests.removeExpired(now, expired);
+        for (GattRequest<D, A> request : expired) {
+            mListener.onRequestTimedOut(request.requestId);
+            mStats.onTimeout(request.handle);
+            sendResponse(request.device, request.requestId, GATT_UNLIKELY_ERROR, request.offset, null);
+        }
+        long nextDeadline = mPendingRequests.getNextDeadline();
+        mTimeoutSweepScheduled = nextDeadline != Long.MAX_VALUE;
+        if (mTimeoutSweepScheduled) {
+            mListener.scheduleTimeoutSweep(Math.max(1000000, nextDeadline - now));
+        }
+    }
+
+    /**
+     * Queues the notification for every subscribed device, unless the characteristic's notify
+     * policy holds or skips it. Returns an error code when it could not be queued.
+     */
+    String notify(int handle, byte[] value, NotificationQueue.Completion completion) {
+        if (mAttributes.get(handle) == null) {
+            return "characteristic_not_found";
+        }
+        record(TrafficRecorder.JS_NOTIFY, System.nanoTime(), null, 0, handle, 0, 0, 0, value);
+        mNotifyPolicies.notify(handle, value, completion, System.nanoTime());
+        return null;
+    }
+
+    /**
+     * Sets how notify calls on the characteristic are conflated, deduplicated and rate limited,
+     * see {@link NotifyPolicies#set}.
+     */
+    void setNotifyPolicy(int handle, boolean conflate, boolean dedupe, double maxHz) {
+        mNotifyPolicies.set(handle, conflate, dedupe, maxHz);
+    }
+
+    /**
+     * Sends the notifications held back by a rate limit whose slot has come.
+     */
+    void flushNotifications(long now) {
+        mNotifyPolicies.flush(now);
+    }
+
+    /**
+     * Streams the source to every subscribed device, see {@link NotificationQueue#notifyStream}.
+     * Returns an error code when it could not be queued.
+     */
+    String notifyStream(final int handle, ByteBuffer source, final NotificationQueue.Completion completion) {
+        A characteristic = mAttributes.get(handle);
+        if (characteristic == null) {
+            return "characteristic_not_found";
+        }
+        mNotificationQueue.notifyStream(getSubscribedDevices(handle), characteristic, source,
+                new NotificationQueue.Completion() {
+                    @Override
+                    protected void onProgress(int done, int total) {
+                        completion.onProgress(done, total);
+                    }
+
+                    @Override
+                    protected void onComplete(int sent, int failed) {
+                        mStats.onNotificationsComplete(handle, sent, failed);
+                        completion.onComplete(sent, failed);
+                    }
+                });
+        return null;
+    }
+
+    /**
+     * Stores everything written to the characteristic in the sink, replacing its previous one.
+     */
+    void startWriteSink(int handle, WriteSink sink) {
+        closeWriteSink(handle, "sink_replaced");
+        mWriteSinks.put(handle, sink);
+    }
+
+    /**
+     * Detaches the characteristic's sink without closing it, or returns null when it has none.
+     */
+    WriteSink removeWriteSink(int handle) {
+        return mWriteSinks.remove(handle);
+    }
+
+    /**
+     * Closes the characteristic's sink, if it has one, and reports it with the error that ended it.
+     */
+    void closeWriteSink(int handle, String error) {
+        WriteSink sink = mWriteSinks.remove(handle);
+        if (sink == null) {
+            return;
+        }
+        try {
+            sink.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = "sink_failed";
+            }
+        }
+        mListener.onWriteSinkClosed(handle, sink, error);
+    }
+
+    /**
+     * Sets the layout of the characteristic's value, or removes it when null.
+     */
+    void setSchema(int handle, ValueSchema schema) {
+        if (schema == null) {
+            mSchemas.remove(handle);
+        } else {
+            mSchemas.put(handle, schema);
+        }
+    }
+
+    /**
+     * Returns the layout of the characteristic's value, or null when it has none.
+     */
+    ValueSchema getSchema(int handle) {
+        return mSchemas.get(handle);
+    }
+
+    /**
+     * Drops everything kept for the characteristic after its service was removed.
+     */
+    void forget(int handle) {
+        mReadCache.remove(handle);
+        mSchemas.remove(handle);
+        mNotifyPolicies.remove(handle);
+        mSubscriptions.removeHandle(handle);
+        closeWriteSink(handle, "characteristic_removed");
+    }
+
+    /**
+     * Drops every characteristic, after every service was removed.
+     */
+    void clearAttributes() {
+        closeWriteSinks();
+        mAttributes.clear();
+        mReadCache.clear();
+        mNotifyPolicies.clear();
+        mSchemas.clear();
+        mSubscriptions.clear();
+        mReadSequences.clear();
+        mPreparedWrites.clear();
+        // handles are reassigned from 0, their counters would be attributed to the wrong characteristics
+        mStats.clear();
+    }
+
+    /**
+     * Drops every connection and pending request, after the server was closed. Characteristics
+     * are kept.
+     */
+    void close() {
+        mNotificationQueue.clear();
+        mPendingRequests.clear(new ArrayList<GattRequest<D, A>>());
+        mSubscriptions.clear();
+        mConnections.clear();
+        closeWriteSinks();
+    }
+
+    private void closeWriteSinks() {
+        for (Integer handle : new ArrayList<>(mWriteSinks.keySet())) {
+            closeWriteSink(handle, "sink_closed");
+        }
+    }
+
+    private void addPendingRequest(GattRequest<D, A> request) {
+        mPendingRequests.put(request.requestId, request, System.nanoTime() + mRequestTimeoutNanos);
+        if (!mTimeoutSweepScheduled) {
+            mTimeoutSweepScheduled = true;
+            mListener.scheduleTimeoutSweep(mRequestTimeoutNanos);
+        }
+    }
+
+    private void sendResponse(D device, int requestId, int status, int offset, byte[] value) {
+        record(TrafficRecorder.RESPONSE, System.nanoTime(), device, requestId, 0, offset, status, 0, value);
+        mBackend.sendResponse(device, requestId, status, offset, value);
+    }
+
+    private void record(int type, long at, D device, int requestId, int handle, int offset, int arg, int flags,
+                        byte[] value) {
+        if (mRecorder != null) {
+            mRecorder.record(type, at, device != null ? mBackend.getAddress(device) : null, requestId, handle, offset,
+                    arg, flags, value);
+        }
+    }
+
+    /**
+     * Appends a written value to the sink and returns the status to answer the write with.
+     */
+    private int writeToSink(int handle, WriteSink sink, byte[] value) {
+        try {
+            if (!sink.write(value != null ? value : new byte[0])) {
+                closeWriteSink(handle, "length_exceeded");
+                return GATT_INVALID_ATTRIBUTE_LENGTH;
+            }
+        } catch (IOException e) {
+            closeWriteSink(handle, "sink_failed");
+            return GATT_UNLIKELY_ERROR;
+        }
+        if (sink.isComplete()) {
+            closeWriteSink(handle, null);
+        } else if (sink.takeProgress()) {
+            mListener.onWriteSinkProgress(handle, sink);
+        }
+        return GATT_SUCCESS;
+    }
+
+    /**
+     * Responds to a (blob) read with the part of the value starting at offset, as much of it as
+     * fits into the device's MTU.
+     */
+    private void sendReadResponse(D device, int requestId, int handle, int offset, byte[] value, long receivedAt) {
+        byte[] slice = ReadSequences.slice(value, offset, getMtu(mBackend.getAddress(device)) - 1);
+        if (slice == null) {
+            sendResponse(device, requestId, GATT_INVALID_OFFSET, offset, null);
+        } else {
+            sendResponse(device, requestId, GATT_SUCCESS, offset, slice);
+        }
+        mStats.onResponse(handle, System.nanoTime() - receivedAt, slice != null ? slice.length : 0);
+    }
+
+    /**
+     * Returns the connected devices that enabled notifications or indications of the characteristic.
+     */
+    private ArrayList<D> getSubscribedDevices(int handle) {
+        ArrayList<D> devices = new ArrayList<>();
+        for (String address : mSubscriptions.getDeviceAddresses(handle)) {
+            Connection<D> connection = mConnections.get(address);
+            if (connection != null) {
+                devices.add(connection.device);
+            }
+        }
+        return devices;
+    }
+
+    private int getMtu(String deviceAddress) {
+        Connection<D> connection = mConnections.get(deviceAddress);
+        return connection != null ? connection.mtu : Connection.DEFAULT_MTU;
+    }
+
+    private Connection<D> getOrCreateConnection(D device) {
+        String address = mBackend.getAddress(device);
+        Connection<D> connection = mConnections.get(address);
+        if (connection == null) {
+            connection = new Connection<>(device);
+            mConnections.put(address, connection);
+        }
+        return connection;
+    }
+
+    private static byte[] getConfigurationValue(int configuration) {
+        switch (configuration) {
+            case SubscriptionTable.NOTIFY:
+                return ENABLE_NOTIFICATION_VALUE;
+            case SubscriptionTable.INDICATE:
+                return ENABLE_INDICATION_VALUE;
+        }
+        return DISABLE_NOTIFICATION_VALUE;
+    }
+}
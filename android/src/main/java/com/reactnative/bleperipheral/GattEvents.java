@@ -0,0 +1,48 @@
+package com.reactnative.peripheral;
+
+/**
+ * Fills in the parameters of the events sent to JS. Writes through {@link Params} so the same code
+ * fills React's WritableMap on the device and plain maps elsewhere.
+ */
+final class GattEvents {
+
+    interface Params {
+        void putString(String key, String value);
+
+        void putInt(String key, int value);
+
+        void putBoolean(String key, boolean value);
+
+        void putDouble(String key, double value);
+    }
+
+    private GattEvents() {
+    }
+
+    static void putReadRequest(Params params, int requestId, int offset) {
+        params.putString("requestId", String.valueOf(requestId));
+        params.putInt("offset", offset);
+    }
+
+    static void putWriteRequest(Params params, int requestId, boolean responseNeeded, int offset, byte[] value) {
+        params.putString("requestId", String.valueOf(requestId));
+        params.putBoolean("responseNeeded", responseNeeded);
+        params.putInt("offset", offset);
+        params.putString("value", Base64Codec.encode(value));
+    }
+
+    /**
+     * Identifies the characteristic by its handle and the registry's preformatted UUIDs. Returns
+     * false, without putting anything, when the registry doesn't know the handle.
+     */
+    static boolean putAttribute(Params params, AttributeRegistry<?> attributes, int handle) {
+        String characteristicUuid = attributes.getCharacteristicUuid(handle);
+        if (characteristicUuid == null) {
+            return false;
+        }
+        params.putInt("handle", handle);
+        params.putString("characteristicUuid", characteristicUuid);
+        params.putString("serviceUuid", attributes.getServiceUuid(handle));
+        return true;
+    }
+}
@@ -0,0 +1,34 @@
+package com.reactnative.peripheral;
+
+/**
+ * A read or write request waiting for JS to respond.
+ *
+ * @param <D> device
+ * @param <A> attribute
+ */
+class GattRequest<D, A> {
+
+    final int requestId;
+    final int offset;
+    final D device;
+    /** Null for an executed prepared write, which covers several characteristics. */
+    final A characteristic;
+    final int handle;
+    final boolean read;
+    /** Time the request arrived, as System.nanoTime(). */
+    final long receivedAt;
+    /** Responses JS still has to give before the request is answered. */
+    int pendingResponses = 1;
+    /** First error JS responded with, or GATT_SUCCESS. */
+    int status = GattDispatcher.GATT_SUCCESS;
+
+    GattRequest(int requestId, int offset, D device, A characteristic, int handle, boolean read, long receivedAt) {
+        this.requestId = requestId;
+        this.offset = offset;
+        this.device = device;
+        this.characteristic = characteristic;
+        this.handle = handle;
+        this.read = read;
+        this.receivedAt = receivedAt;
+    }
+}
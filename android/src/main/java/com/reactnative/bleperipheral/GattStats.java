@@ -0,0 +1,185 @@
+package com.reactnative.peripheral;
+
+import java.util.Arrays;
+
+/**
+ * Request, notification and traffic counters per attribute handle. Recording is a few field
+ * increments, so it stays on in production builds.
+ */
+class GattStats {
+
+    private Counters[] mCounters = new Counters[16];
+
+    void onRequest(int handle, int bytesIn) {
+        Counters counters = getOrCreate(handle);
+        if (counters != null) {
+            counters.requests++;
+            counters.bytesIn += bytesIn;
+        }
+    }
+
+    void onCacheHit(int handle) {
+        Counters counters = getOrCreate(handle);
+        if (counters != null) {
+            counters.cacheHits++;
+        }
+    }
+
+    /**
+     * Records a response handed to the stack, latency being the time since the request arrived.
+     */
+    void onResponse(int handle, long latencyNanos, int bytesOut) {
+        Counters counters = getOrCreate(handle);
+        if (counters != null) {
+            counters.latency.record(latencyNanos);
+            counters.bytesOut += bytesOut;
+        }
+    }
+
+    void onTimeout(int handle) {
+        Counters counters = getOrCreate(handle);
+        if (counters != null) {
+            counters.timeouts++;
+        }
+    }
+
+    void onNotificationFrame(int handle, int bytesOut) {
+        Counters counters = getOrCreate(handle);
+        if (counters != null) {
+            counters.bytesOut += bytesOut;
+        }
+    }
+
+    void onNotificationsComplete(int handle, int sent, int dropped) {
+        Counters counters = getOrCreate(handle);
+        if (counters != null) {
+            counters.notificationsSent += sent;
+            counters.notificationsDropped += dropped;
+        }
+    }
+
+    /**
+     * Records a notify call that was conflated into a later one or suppressed as a repeat.
+     */
+    void onNotificationSkipped(int handle) {
+        Counters counters = getOrCreate(handle);
+        if (counters != null) {
+            counters.notificationsSkipped++;
+        }
+    }
+
+    /**
+     * Returns a copy of the counters, indexed by handle. Handles nothing was recorded for are null.
+     */
+    Counters[] snapshot() {
+        Counters[] snapshot = new Counters[mCounters.length];
+        for (int handle = 0; handle < mCounters.length; handle++) {
+            if (mCounters[handle] != null) {
+                snapshot[handle] = new Counters();
+                snapshot[handle].add(mCounters[handle]);
+            }
+        }
+        return snapshot;
+    }
+
+    void clear() {
+        Arrays.fill(mCounters, null);
+    }
+
+    private Counters getOrCreate(int handle) {
+        if (handle < 0) {
+            return null;
+        }
+        if (handle >= mCounters.length) {
+            mCounters = Arrays.copyOf(mCounters, Math.max(handle + 1, mCounters.length * 2));
+        }
+        Counters counters = mCounters[handle];
+        if (counters == null) {
+            counters = new Counters();
+            mCounters[handle] = counters;
+        }
+        return counters;
+    }
+
+    static class Counters {
+        long requests;
+        long cacheHits;
+        long timeouts;
+        long notificationsSent;
+        long notificationsDropped;
+        long notificationsSkipped;
+        long bytesIn;
+        long bytesOut;
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        void add(Counters other) {
+            requests += other.requests;
+            cacheHits += other.cacheHits;
+            timeouts += other.timeouts;
+            notificationsSent += other.notificationsSent;
+            notificationsDropped += other.notificationsDropped;
+            notificationsSkipped += other.notificationsSkipped;
+            bytesIn += other.bytesIn;
+            bytesOut += other.bytesOut;
+            latency.add(other.latency);
+        }
+    }
+
+    /**
+     * Latencies in power-of-two buckets, bucket i counting latencies below 2^i microseconds.
+     * Percentiles are reported as the upper bound of their bucket, i.e. at most twice the real value.
+     */
+    static class LatencyHistogram {
+        static final int BUCKETS = 25;
+
+        final long[] counts = new long[BUCKETS];
+        long count;
+        long sumNanos;
+        long maxNanos;
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            counts[Math.min(bucket, BUCKETS - 1)]++;
+            count++;
+            sumNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        void add(LatencyHistogram other) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            sumNanos += other.sumNanos;
+            maxNanos = Math.max(maxNanos, other.maxNanos);
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given percentile, in milliseconds.
+         */
+        double percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += counts[i];
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min((1L << i) / 1000.0, getMax());
+                }
+            }
+            return getMax();
+        }
+
+        double getMean() {
+            return count == 0 ? 0 : sumNanos / (double) count / 1000000;
+        }
+
+        double getMax() {
+            return maxNanos / 1000000.0;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.reactnative.peripheral;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Outbound notifications, queued per device. A device only gets the next notification after the
+ * stack reported one of the in-flight ones as sent, so the stack's transmit queue never overflows.
+ * Values larger than a device's maximum payload are split into consecutive frames.
+ *
+ * @param <D> connected device
+ * @param <A> attribute notifications are sent for
+ */
+class NotificationQueue<D, A> {
+
+    static final int DEFAULT_WINDOW = 1;
+
+    interface Sender<D, A> {
+        String getAddress(D device);
+
+        /**
+         * Largest value that fits into a single notification to the device, i.e. its ATT MTU - 3.
+         */
+        int getMaxPayload(D device);
+
+        /**
+         * Hands a notification or indication to the stack. Returns false when it was not accepted.
+         */
+        boolean send(D device, A attribute, byte[] value);
+    }
+
+    /**
+     * Tracks the frames of one notify call, over every device it was sent to.
+     */
+    abstract static class Completion {
+        private int mTotal;
+        private int mRemaining;
+        private int mFailed;
+
+        protected abstract void onComplete(int sent, int failed);
+
+        /**
+         * Called instead of onComplete when the value was dropped before it was handed to the
+         * queue, because its characteristic was removed.
+         */
+        protected void onDropped() {
+            onComplete(0, 0);
+        }
+
+        /**
+         * Called after every frame that was sent or failed.
+         */
+        protected void onProgress(int done, int total) {
+        }
+
+        private void done(boolean success) {
+            if (!success) {
+                mFailed++;
+            }
+            mRemaining--;
+            onProgress(mTotal - mRemaining, mTotal);
+            if (mRemaining == 0) {
+                onComplete(mTotal - mFailed, mFailed);
+            }
+        }
+    }
+
+    private final Sender<D, A> mSender;
+    private final HashMap<String, DeviceQueue<D, A>> mQueues = new HashMap<>();
+    private int mWindow = DEFAULT_WINDOW;
+
+    NotificationQueue(Sender<D, A> sender) {
+        mSender = sender;
+    }
+
+    /**
+     * Sets how many notifications may be handed to the stack per device before waiting for
+     * {@link #onSent}.
+     */
+    void setWindow(int window) {
+        mWindow = Math.max(1, window);
+        for (DeviceQueue<D, A> queue : mQueues.values()) {
+            pump(queue);
+        }
+    }
+
+    /**
+     * Queues the value for every device, split into frames of the device's maximum payload. The
+     * completion is called once all frames were sent or failed, or right away when there are no
+     * devices.
+     */
+    void notify(Collection<D> devices, A attribute, byte[] value, Completion completion) {
+        enqueue(devices, attribute, ByteBuffer.wrap(value), false, completion);
+    }
+
+    /**
+     * Streams the remaining bytes of the source to every device, like {@link #notify}. Frames are
+     * only read from the source once they're about to be sent, so it can be a memory-mapped file
+     * of any size. Once a frame to a device fails, the rest of the stream to that device fails too.
+     */
+    void notifyStream(Collection<D> devices, A attribute, ByteBuffer source, Completion completion) {
+        enqueue(devices, attribute, source, true, completion);
+    }
+
+    private void enqueue(Collection<D> devices, A attribute, ByteBuffer value, boolean stream, Completion completion) {
+        int total = 0;
+        for (D device : devices) {
+            total += getFrameCount(value.remaining(), mSender.getMaxPayload(device));
+        }
+        completion.mTotal = total;
+        completion.mRemaining = total;
+        if (devices.isEmpty()) {
+            completion.onComplete(0, 0);
+            return;
+        }
+        for (D device : devices) {
+            DeviceQueue<D, A> queue = getOrCreate(device);
+            queue.pending.add(new Packet<>(attribute, value.duplicate(), mSender.getMaxPayload(device), stream,
+                    completion));
+        }
+        for (D device : devices) {
+            pump(mQueues.get(mSender.getAddress(device)));
+        }
+    }
+
+    /**
+     * Called when the stack reports the oldest in-flight notification of a device as sent.
+     */
+    void onSent(String deviceAddress, boolean success) {
+        DeviceQueue<D, A> queue = mQueues.get(deviceAddress);
+        if (queue == null) {
+            return;
+        }
+        Packet<A> packet = queue.inFlight.poll();
+        if (packet != null) {
+            packet.completion.done(success);
+            if (!success && packet.stream) {
+                abort(queue, packet);
+            }
+        }
+        pump(queue);
+    }
+
+    /**
+     * Fails everything queued for a device that disconnected.
+     */
+    void removeDevice(String deviceAddress) {
+        DeviceQueue<D, A> queue = mQueues.remove(deviceAddress);
+        if (queue == null) {
+            return;
+        }
+        failAll(queue);
+    }
+
+    void clear() {
+        for (DeviceQueue<D, A> queue : mQueues.values()) {
+            failAll(queue);
+        }
+        mQueues.clear();
+    }
+
+    int size(String deviceAddress) {
+        DeviceQueue<D, A> queue = mQueues.get(deviceAddress);
+        if (queue == null) {
+            return 0;
+        }
+        int size = queue.inFlight.size();
+        for (Packet<A> packet : queue.pending) {
+            size += packet.framesLeft;
+        }
+        return size;
+    }
+
+    private DeviceQueue<D, A> getOrCreate(D device) {
+        String address = mSender.getAddress(device);
+        DeviceQueue<D, A> queue = mQueues.get(address);
+        if (queue == null) {
+            queue = new DeviceQueue<>(device);
+            mQueues.put(address, queue);
+        }
+        return queue;
+    }
+
+    private void pump(DeviceQueue<D, A> queue) {
+        while (queue.inFlight.size() < mWindow && !queue.pending.isEmpty()) {
+            Packet<A> packet = queue.pending.peek();
+            byte[] frame = packet.nextFrame();
+            if (packet.framesLeft == 0) {
+                queue.pending.poll();
+            }
+            if (mSender.send(queue.device, packet.attribute, frame)) {
+                queue.inFlight.add(packet);
+            } else {
+                packet.completion.done(false);
+                if (packet.stream) {
+                    abort(queue, packet);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails the frames of the packet that weren't handed to the stack yet.
+     */
+    private static <D, A> void abort(DeviceQueue<D, A> queue, Packet<A> packet) {
+        if (packet.framesLeft == 0) {
+            return;
+        }
+        queue.pending.remove(packet);
+        while (packet.framesLeft > 0) {
+            packet.framesLeft--;
+            packet.completion.done(false);
+        }
+    }
+
+    private static int getFrameCount(int length, int maxPayload) {
+        maxPayload = Math.max(1, maxPayload);
+        return length == 0 ? 1 : (length + maxPayload - 1) / maxPayload;
+    }
+
+    private static <D, A> void failAll(DeviceQueue<D, A> queue) {
+        Packet<A> packet;
+        while ((packet = queue.inFlight.poll()) != null) {
+            packet.completion.done(false);
+        }
+        while ((packet = queue.pending.poll()) != null) {
+            while (packet.framesLeft > 0) {
+                packet.framesLeft--;
+                packet.completion.done(false);
+            }
+        }
+    }
+
+    private static class DeviceQueue<D, A> {
+        final D device;
+        final ArrayDeque<Packet<A>> pending = new ArrayDeque<>();
+        final ArrayDeque<Packet<A>> inFlight = new ArrayDeque<>();
+
+        DeviceQueue(D device) {
+            this.device = device;
+        }
+    }
+
+    /**
+     * A value queued for one device, sent as consecutive frames of at most the device's maximum
+     * payload.
+     */
+    private static class Packet<A> {
+        final A attribute;
+        final ByteBuffer value;
+        final int maxPayload;
+        final boolean stream;
+        final Completion completion;
+        int framesLeft;
+
+        Packet(A attribute, ByteBuffer value, int maxPayload, boolean stream, Completion completion) {
+            this.attribute = attribute;
+            this.value = value;
+            this.maxPayload = Math.max(1, maxPayload);
+            this.stream = stream;
+            this.completion = completion;
+            this.framesLeft = getFrameCount(value.remaining(), maxPayload);
+        }
+
+        /**
+         * Frames are only copied out of the value once they're about to be sent. A value that fits
+         * into a single frame is sent as is.
+         */
+        byte[] nextFrame() {
+            framesLeft--;
+            if (value.hasArray() && value.arrayOffset() == 0 && value.position() == 0
+                    && value.remaining() == value.array().length && value.remaining() <= maxPayload) {
+                value.position(value.limit());
+                return value.array();
+            }
+            byte[] frame = new byte[Math.min(maxPayload, value.remaining())];
+            value.get(frame);
+            return frame;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.reactnative.peripheral;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Per characteristic policies for values notified faster than they can be sent, applied before
+ * anything is queued. Indexed by attribute handle, characteristics without a policy pass straight
+ * through.
+ *
+ * Held values are latest-value-wins: a value replaced before it was sent is never sent, and the
+ * notify calls that were replaced complete along with the value that replaced them.
+ */
+class NotifyPolicies {
+
+    interface Sender {
+        /**
+         * Queues the value for every subscriber, calling the completion once it went out.
+         */
+        void send(int handle, byte[] value, NotificationQueue.Completion completion);
+
+        /**
+         * Called for every notify call that was replaced by a later value or suppressed as a repeat.
+         */
+        void onSkipped(int handle);
+
+        /**
+         * Calls {@link #flush} after the delay.
+         */
+        void scheduleFlush(long delayNanos);
+    }
+
+    private final Sender mSender;
+    private Entry[] mEntries = new Entry[16];
+
+    NotifyPolicies(Sender sender) {
+        mSender = sender;
+    }
+
+    /**
+     * Sets the policy of a characteristic, or removes it when none of the options is set. A held
+     * value is sent as soon as the new policy allows, right away when there's none.
+     *
+     * @param conflate hold values notified while the previous one is still being sent
+     * @param dedupe   skip values equal to the one sent before
+     * @param maxHz    send at most this many values per second, holding the latest one until the
+     *                 next slot; 0 for no limit
+     */
+    void set(int handle, boolean conflate, boolean dedupe, double maxHz) {
+        if (handle < 0) {
+            return;
+        }
+        if (!conflate && !dedupe && maxHz <= 0) {
+            Entry entry = detach(handle);
+            if (entry != null && entry.heldValue != null) {
+                send(handle, entry, System.nanoTime());
+            }
+            return;
+        }
+        Entry entry = getOrCreate(handle);
+        entry.conflate = conflate;
+        entry.dedupe = dedupe;
+        entry.minIntervalNanos = maxHz > 0 ? (long) (1e9 / maxHz) : 0;
+        flush(handle, entry, System.nanoTime());
+    }
+
+    void notify(int handle, byte[] value, NotificationQueue.Completion completion, long now) {
+        Entry entry = handle >= 0 && handle < mEntries.length ? mEntries[handle] : null;
+        if (entry == null) {
+            mSender.send(handle, value, completion);
+            return;
+        }
+        if (entry.heldValue != null) {
+            // a value is already waiting for its slot, this one replaces it
+            entry.heldValue = value;
+            entry.heldCompletions.add(completion);
+            mSender.onSkipped(handle);
+            return;
+        }
+        if (entry.dedupe && Arrays.equals(value, entry.lastValue)) {
+            mSender.onSkipped(handle);
+            completion.onComplete(0, 0);
+            return;
+        }
+        entry.heldValue = value;
+        entry.heldCompletions.add(completion);
+        flush(handle, entry, now);
+    }
+
+    /**
+     * Sends the held values whose slot has come.
+     */
+    void flush(long now) {
+        for (int handle = 0; handle < mEntries.length; handle++) {
+            Entry entry = mEntries[handle];
+            if (entry != null) {
+                entry.flushScheduled = false;
+                flush(handle, entry, now);
+            }
+        }
+    }
+
+    /**
+     * Removes the policy of a characteristic that was removed. A held value is dropped, its notify
+     * calls are reported as dropped.
+     */
+    void remove(int handle) {
+        Entry entry = detach(handle);
+        if (entry == null) {
+            return;
+        }
+        ArrayList<NotificationQueue.Completion> completions = new ArrayList<>(entry.heldCompletions);
+        entry.heldValue = null;
+        entry.heldCompletions.clear();
+        for (NotificationQueue.Completion completion : completions) {
+            completion.onDropped();
+        }
+    }
+
+    void clear() {
+        for (int handle = 0; handle < mEntries.length; handle++) {
+            remove(handle);
+        }
+    }
+
+    private void flush(final int handle, final Entry entry, long now) {
+        if (entry.heldValue == null || (entry.conflate && entry.sending)) {
+            // once sent, the completion flushes again
+            return;
+        }
+        if (entry.minIntervalNanos > 0 && entry.lastValue != null) {
+            long wait = entry.lastSentAt + entry.minIntervalNanos - now;
+            if (wait > 0) {
+                if (!entry.flushScheduled) {
+                    entry.flushScheduled = true;
+                    mSender.scheduleFlush(wait);
+                }
+                return;
+            }
+        }
+        entry.flushScheduled = false;
+        byte[] value = entry.heldValue;
+        if (entry.dedupe && Arrays.equals(value, entry.lastValue)) {
+            // replaced by a repeat of the value sent before
+            mSender.onSkipped(handle);
+            completeHeld(entry, 0, 0);
+            return;
+        }
+        send(handle, entry, now);
+    }
+
+    /**
+     * Hands the held value to the sender. Once it went out, the entry is flushed again if it's
+     * still the characteristic's.
+     */
+    private void send(final int handle, final Entry entry, long now) {
+        byte[] value = entry.heldValue;
+        final ArrayList<NotificationQueue.Completion> completions = new ArrayList<>(entry.heldCompletions);
+        entry.heldValue = null;
+        entry.heldCompletions.clear();
+        entry.lastValue = value;
+        entry.lastSentAt = now;
+        entry.sending = true;
+        mSender.send(handle, value, new NotificationQueue.Completion() {
+            @Override
+            protected void onComplete(int sent, int failed) {
+                for (NotificationQueue.Completion completion : completions) {
+                    completion.onComplete(sent, failed);
+                }
+                onSent();
+            }
+
+            @Override
+            protected void onDropped() {
+                for (NotificationQueue.Completion completion : completions) {
+                    completion.onDropped();
+                }
+                onSent();
+            }
+
+            private void onSent() {
+                if (mEntries.length > handle && mEntries[handle] == entry) {
+                    entry.sending = false;
+                    flush(handle, entry, System.nanoTime());
+                }
+            }
+        });
+    }
+
+    private static void completeHeld(Entry entry, int sent, int failed) {
+        ArrayList<NotificationQueue.Completion> completions = new ArrayList<>(entry.heldCompletions);
+        entry.heldValue = null;
+        entry.heldCompletions.clear();
+        for (NotificationQueue.Completion completion : completions) {
+            completion.onComplete(sent, failed);
+        }
+    }
+
+    private Entry detach(int handle) {
+        if (handle < 0 || handle >= mEntries.length) {
+            return null;
+        }
+        Entry entry = mEntries[handle];
+        mEntries[handle] = null;
+        return entry;
+    }
+
+    private Entry getOrCreate(int handle) {
+        if (handle >= mEntries.length) {
+            mEntries = Arrays.copyOf(mEntries, Math.max(handle + 1, mEntries.length * 2));
+        }
+        Entry entry = mEntries[handle];
+        if (entry == null) {
+            entry = new Entry();
+            mEntries[handle] = entry;
+        }
+        return entry;
+    }
+
+    private static class Entry {
+        boolean conflate;
+        boolean dedupe;
+        long minIntervalNanos;
+        /** Last value handed to the sender, null before the first one. */
+        byte[] lastValue;
+        long lastSentAt;
+        /** Whether the last value is still being sent. */
+        boolean sending;
+        boolean flushScheduled;
+        /** Latest value waiting to be sent, and the notify calls it stands for. */
+        byte[] heldValue;
+        final ArrayList<NotificationQueue.Completion> heldCompletions = new ArrayList<>();
+    }
+}
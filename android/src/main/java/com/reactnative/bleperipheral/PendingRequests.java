@@ -0,0 +1,169 @@
+package com.reactnative.peripheral;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Requests waiting for a response from JS, keyed by the stack's request id. An open-addressing
+ * table over primitive ints, so neither the binder callbacks nor respond() box or format ids.
+ * Every request carries a deadline after which it can be evicted and answered natively.
+ *
+ * @param <R> pending request
+ */
+class PendingRequests<R> {
+
+    private int[] mKeys;
+    private Object[] mValues;
+    private long[] mDeadlines;
+    private int mSize;
+
+    PendingRequests() {
+        allocate(16);
+    }
+
+    /**
+     * Adds a request that expires at the given {@link System#nanoTime()} deadline.
+     */
+    void put(int requestId, R request, long deadline) {
+        if ((mSize + 1) * 4 > mKeys.length * 3) {
+            rehash(mKeys.length * 2);
+        }
+        int slot = find(requestId);
+        if (mValues[slot] == null) {
+            mSize++;
+        }
+        mKeys[slot] = requestId;
+        mValues[slot] = request;
+        mDeadlines[slot] = deadline;
+    }
+
+    @SuppressWarnings("unchecked")
+    R get(int requestId) {
+        return (R) mValues[find(requestId)];
+    }
+
+    @SuppressWarnings("unchecked")
+    R remove(int requestId) {
+        int slot = find(requestId);
+        R request = (R) mValues[slot];
+        if (request != null) {
+            delete(slot);
+        }
+        return request;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the earliest deadline of any pending request, or Long.MAX_VALUE when there are none.
+     */
+    long getNextDeadline() {
+        long next = Long.MAX_VALUE;
+        for (int slot = 0; slot < mValues.length; slot++) {
+            if (mValues[slot] != null && (next == Long.MAX_VALUE || mDeadlines[slot] - next < 0)) {
+                next = mDeadlines[slot];
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Removes every request whose deadline has passed and adds it to expired.
+     */
+    @SuppressWarnings("unchecked")
+    void removeExpired(long now, List<R> expired) {
+        int count = 0;
+        int[] expiredIds = null;
+        for (int slot = 0; slot < mValues.length; slot++) {
+            if (mValues[slot] != null && now - mDeadlines[slot] >= 0) {
+                if (expiredIds == null) {
+                    expiredIds = new int[mSize];
+                }
+                expiredIds[count++] = mKeys[slot];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            expired.add(remove(expiredIds[i]));
+        }
+    }
+
+    /**
+     * Removes every request and adds it to removed.
+     */
+    @SuppressWarnings("unchecked")
+    void clear(List<R> removed) {
+        for (Object value : mValues) {
+            if (value != null) {
+                removed.add((R) value);
+            }
+        }
+        Arrays.fill(mValues, null);
+        mSize = 0;
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mValues = new Object[capacity];
+        mDeadlines = new long[capacity];
+    }
+
+    private void rehash(int capacity) {
+        int[] keys = mKeys;
+        Object[] values = mValues;
+        long[] deadlines = mDeadlines;
+        allocate(capacity);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (values[slot] != null) {
+                int newSlot = find(keys[slot]);
+                mKeys[newSlot] = keys[slot];
+                mValues[newSlot] = values[slot];
+                mDeadlines[newSlot] = deadlines[slot];
+            }
+        }
+    }
+
+    private int indexOf(int key) {
+        return (key * 0x9E3779B9) >>> 16 & (mKeys.length - 1);
+    }
+
+    /**
+     * Returns the slot holding the key, or the empty slot where it would be inserted.
+     */
+    private int find(int key) {
+        int mask = mKeys.length - 1;
+        int slot = indexOf(key);
+        while (mValues[slot] != null && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties the slot, shifting back later entries of the same probe sequence so lookups never
+     * hit a gap.
+     */
+    private void delete(int slot) {
+        int mask = mKeys.length - 1;
+        int gap = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (mValues[next] == null) {
+                break;
+            }
+            int home = indexOf(mKeys[next]);
+            // the entry can move into the gap unless its home slot lies cyclically in (gap, next]
+            boolean stays = gap <= next ? gap < home && home <= next : gap < home || home <= next;
+            if (!stays) {
+                mKeys[gap] = mKeys[next];
+                mValues[gap] = mValues[next];
+                mDeadlines[gap] = mDeadlines[next];
+                gap = next;
+            }
+        }
+        mValues[gap] = null;
+        mSize--;
+    }
+}
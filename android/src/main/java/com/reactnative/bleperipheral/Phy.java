@@ -0,0 +1,86 @@
+package com.reactnative.peripheral;
+
+/**
+ * LE PHYs by the names used in JS. The values are those of BluetoothDevice, so that this compiles
+ * without the Android SDK.
+ */
+class Phy {
+
+    static final int LE_1M = 1;
+    static final int LE_2M = 2;
+    static final int LE_CODED = 3;
+
+    static final int LE_1M_MASK = 1;
+    static final int LE_2M_MASK = 2;
+    static final int LE_CODED_MASK = 4;
+
+    static final int OPTION_NO_PREFERRED = 0;
+    static final int OPTION_S2 = 1;
+    static final int OPTION_S8 = 2;
+
+    /**
+     * Returns the mask of the PHY named 1M, 2M or coded, or 0 when it's unknown.
+     */
+    static int getMask(String name) {
+        if (name == null) {
+            return 0;
+        }
+        switch (name) {
+            case "1M":
+                return LE_1M_MASK;
+            case "2M":
+                return LE_2M_MASK;
+            case "coded":
+            case "codedS2":
+            case "codedS8":
+                return LE_CODED_MASK;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the PHY named 1M, 2M or coded, or 0 when it's unknown.
+     */
+    static int getPhy(String name) {
+        if (name == null) {
+            return 0;
+        }
+        switch (name) {
+            case "1M":
+                return LE_1M;
+            case "2M":
+                return LE_2M;
+            case "coded":
+                return LE_CODED;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the coding to prefer for the named PHY, codedS2 or codedS8.
+     */
+    static int getOption(String name) {
+        if ("codedS2".equals(name)) {
+            return OPTION_S2;
+        }
+        if ("codedS8".equals(name)) {
+            return OPTION_S8;
+        }
+        return OPTION_NO_PREFERRED;
+    }
+
+    static String getName(int phy) {
+        switch (phy) {
+            case LE_1M:
+                return "1M";
+            case LE_2M:
+                return "2M";
+            case LE_CODED:
+                return "coded";
+            default:
+                return "unknown";
+        }
+    }
+}
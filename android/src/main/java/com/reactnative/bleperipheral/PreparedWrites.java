@@ -0,0 +1,94 @@
+package com.reactnative.peripheral;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Prepare write queues of connected devices. Fragments of a long (queued) write are collected
+ * per device and attribute and reassembled into one value when the central executes the write.
+ *
+ * @param <K> attribute the fragments are written to
+ */
+class PreparedWrites<K> {
+
+    /** Upper bound of bytes queued by a single device, the rest is refused as prepare queue full. */
+    static final int MAX_QUEUED_BYTES = 64 * 1024;
+
+    private final HashMap<String, Queue<K>> mQueues = new HashMap<>();
+
+    /**
+     * Queues a fragment. Returns false when the device's prepare queue is full.
+     */
+    boolean add(String deviceAddress, K attribute, int offset, byte[] value) {
+        Queue<K> queue = mQueues.get(deviceAddress);
+        if (queue == null) {
+            queue = new Queue<>();
+            mQueues.put(deviceAddress, queue);
+        }
+        if (queue.size + value.length > MAX_QUEUED_BYTES) {
+            return false;
+        }
+        ArrayList<Fragment> fragments = queue.attributes.get(attribute);
+        if (fragments == null) {
+            fragments = new ArrayList<>();
+            queue.attributes.put(attribute, fragments);
+        }
+        fragments.add(new Fragment(offset, value));
+        queue.size += value.length;
+        return true;
+    }
+
+    /**
+     * Removes the device's queue and returns the reassembled value of every attribute in it, in
+     * the order they were first written. Returns an empty map when nothing was queued.
+     */
+    LinkedHashMap<K, byte[]> execute(String deviceAddress) {
+        LinkedHashMap<K, byte[]> values = new LinkedHashMap<>();
+        Queue<K> queue = mQueues.remove(deviceAddress);
+        if (queue == null) {
+            return values;
+        }
+        for (Map.Entry<K, ArrayList<Fragment>> entry : queue.attributes.entrySet()) {
+            values.put(entry.getKey(), assemble(entry.getValue()));
+        }
+        return values;
+    }
+
+    void cancel(String deviceAddress) {
+        mQueues.remove(deviceAddress);
+    }
+
+    void clear() {
+        mQueues.clear();
+    }
+
+    private static byte[] assemble(ArrayList<Fragment> fragments) {
+        int length = 0;
+        for (Fragment fragment : fragments) {
+            length = Math.max(length, fragment.offset + fragment.value.length);
+        }
+        byte[] value = new byte[length];
+        // later fragments overwrite earlier ones at the same offset
+        for (Fragment fragment : fragments) {
+            System.arraycopy(fragment.value, 0, value, fragment.offset, fragment.value.length);
+        }
+        return value;
+    }
+
+    private static class Queue<K> {
+        final LinkedHashMap<K, ArrayList<Fragment>> attributes = new LinkedHashMap<>();
+        int size;
+    }
+
+    private static class Fragment {
+        final int offset;
+        final byte[] value;
+
+        Fragment(int offset, byte[] value) {
+            this.offset = offset;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.reactnative.peripheral;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Full values of long reads in progress, per device and attribute handle. A central reads a
+ * value longer than its MTU with a read at offset 0 followed by blob reads at increasing offsets;
+ * the value is resolved once at offset 0 and the remaining slices are served from here.
+ */
+class ReadSequences {
+
+    private final HashMap<String, byte[][]> mValues = new HashMap<>();
+
+    void start(String deviceAddress, int handle, byte[] value) {
+        if (handle < 0) {
+            return;
+        }
+        byte[][] deviceValues = mValues.get(deviceAddress);
+        if (deviceValues == null || handle >= deviceValues.length) {
+            deviceValues = deviceValues == null ? new byte[Math.max(handle + 1, 8)][]
+                    : Arrays.copyOf(deviceValues, Math.max(handle + 1, deviceValues.length * 2));
+            mValues.put(deviceAddress, deviceValues);
+        }
+        deviceValues[handle] = value;
+    }
+
+    byte[] get(String deviceAddress, int handle) {
+        byte[][] deviceValues = mValues.get(deviceAddress);
+        return deviceValues != null && handle >= 0 && handle < deviceValues.length ? deviceValues[handle] : null;
+    }
+
+    void end(String deviceAddress, int handle) {
+        byte[][] deviceValues = mValues.get(deviceAddress);
+        if (deviceValues != null && handle >= 0 && handle < deviceValues.length) {
+            deviceValues[handle] = null;
+        }
+    }
+
+    void clear(String deviceAddress) {
+        mValues.remove(deviceAddress);
+    }
+
+    void clear() {
+        mValues.clear();
+    }
+
+    /**
+     * Returns at most maxLength bytes of the value starting at offset, or null when the offset is
+     * past the end.
+     */
+    static byte[] slice(byte[] value, int offset, int maxLength) {
+        if (value == null) {
+            value = new byte[0];
+        }
+        if (offset > value.length) {
+            return null;
+        }
+        int end = Math.min(value.length, offset + Math.max(0, maxLength));
+        return offset == 0 && end == value.length ? value : Arrays.copyOfRange(value, offset, end);
+    }
+}
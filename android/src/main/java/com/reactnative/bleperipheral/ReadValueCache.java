@@ -0,0 +1,100 @@
+package com.reactnative.peripheral;
+
+import java.util.Arrays;
+
+/**
+ * Native copy of characteristic values, so that read requests can be answered from the binder
+ * callback without a round trip to JS. Indexed by attribute handle.
+ */
+class ReadValueCache {
+
+    /** Every read is forwarded to JS, nothing is cached. */
+    static final int MODE_DYNAMIC = 0;
+    /** The value is cached until JS pushes a new one. */
+    static final int MODE_STATIC = 1;
+    /** The value is cached for a fixed time after it was last set, then JS is asked again. */
+    static final int MODE_TTL = 2;
+
+    private Entry[] mEntries = new Entry[16];
+
+    static int parseMode(String mode) {
+        if (mode == null) {
+            return MODE_DYNAMIC;
+        }
+        switch (mode) {
+            case "static":
+                return MODE_STATIC;
+            case "ttl":
+                return MODE_TTL;
+        }
+        return MODE_DYNAMIC;
+    }
+
+    void setMode(int handle, int mode, long ttlMillis) {
+        if (handle < 0) {
+            return;
+        }
+        Entry entry = getOrCreate(handle);
+        entry.mode = mode;
+        entry.ttlNanos = ttlMillis * 1000000L;
+        entry.expiresAt = System.nanoTime() + entry.ttlNanos;
+    }
+
+    /**
+     * Stores a fresh value. Values stored for characteristics in dynamic mode are never served.
+     */
+    void put(int handle, byte[] value) {
+        if (handle < 0) {
+            return;
+        }
+        Entry entry = getOrCreate(handle);
+        entry.value = value;
+        entry.expiresAt = System.nanoTime() + entry.ttlNanos;
+    }
+
+    /**
+     * Returns the cached value, or null when the characteristic has to be read from JS.
+     */
+    byte[] get(int handle) {
+        Entry entry = handle >= 0 && handle < mEntries.length ? mEntries[handle] : null;
+        if (entry == null || entry.value == null) {
+            return null;
+        }
+        switch (entry.mode) {
+            case MODE_STATIC:
+                return entry.value;
+            case MODE_TTL:
+                return System.nanoTime() - entry.expiresAt < 0 ? entry.value : null;
+        }
+        return null;
+    }
+
+    void remove(int handle) {
+        if (handle >= 0 && handle < mEntries.length) {
+            mEntries[handle] = null;
+        }
+    }
+
+    void clear() {
+        Arrays.fill(mEntries, null);
+    }
+
+    private Entry getOrCreate(int handle) {
+        if (handle >= mEntries.length) {
+            mEntries = Arrays.copyOf(mEntries, Math.max(handle + 1, mEntries.length * 2));
+        }
+        Entry entry = mEntries[handle];
+        if (entry == null) {
+            entry = new Entry();
+            mEntries[handle] = entry;
+        }
+        return entry;
+    }
+
+    private static class Entry {
+        int mode = MODE_DYNAMIC;
+        long ttlNanos;
+        long expiresAt;
+        byte[] value;
+    }
+}
@@ -12,11 +12,17 @@ import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.BluetoothLeAdvertiser;
-import android.bluetooth.BluetoothProfile;
+import android.bluetooth.le.PeriodicAdvertisingParameters;
 import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.ParcelUuid;
-import android.util.Base64;
 import android.util.Log;
 
 import com.facebook.react.bridge.Arguments;
@@ -26,14 +32,32 @@ import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by Nikhil Savaliya on 17/06/21.
@@ -46,10 +70,107 @@ public class RnBlePeripheralModule extends ReactContextBaseJavaModule {
     public static final String SUBSCRIBED = "SUBSCRIBED";
     public static final String UNSUBSCRIBED = "UNSUBSCRIBED";
     public static final String WRITE_REQUEST = "WRITE_REQUEST";
+    public static final String MTU_CHANGED = "MTU_CHANGED";
+    public static final String WRITE_SINK_PROGRESS = "WRITE_SINK_PROGRESS";
+    public static final String WRITE_SINK_COMPLETE = "WRITE_SINK_COMPLETE";
+    public static final String NOTIFY_STREAM_PROGRESS = "NOTIFY_STREAM_PROGRESS";
+    public static final String EVENT_BATCH = "EVENT_BATCH";
+    public static final String PHY_CHANGED = "PHY_CHANGED";
     private final ReactApplicationContext mReactContext;
     public static final String TAG = RnBlePeripheralModule.class.getSimpleName();
-    private final HashMap<String, GattRequest> mRequestMap = new HashMap<>();
-    private final HashMap<String, BluetoothGattService> mServicesMap = new HashMap<>();
+    /**
+     * Runs every GATT and advertise callback and every React method as a queued task, in order.
+     * All state below is only touched from this thread, so none of it needs locking.
+     */
+    private final Handler mEventLoop;
+    /** Defined services in the order they were added, whether or not they're in the server's database yet. */
+    private final HashMap<String, BluetoothGattService> mServicesMap = new LinkedHashMap<>();
+    /** Serves the characteristic requests, everything but the Android calls happens in there. */
+    private final GattDispatcher<BluetoothDevice, BluetoothGattCharacteristic> mDispatcher =
+            new GattDispatcher<>(new GattDispatcher.Backend<BluetoothDevice, BluetoothGattCharacteristic>() {
+                @Override
+                public String getAddress(BluetoothDevice device) {
+                    return device.getAddress();
+                }
+
+                @Override
+                public int getProperties(BluetoothGattCharacteristic characteristic) {
+                    return characteristic.getProperties();
+                }
+
+                @Override
+                public byte[] getValue(BluetoothGattCharacteristic characteristic) {
+                    return characteristic.getValue();
+                }
+
+                @Override
+                public void setValue(BluetoothGattCharacteristic characteristic, byte[] value) {
+                    characteristic.setValue(value);
+                }
+
+                @Override
+                public void sendResponse(BluetoothDevice device, int requestId, int status, int offset, byte[] value) {
+                    if (mGattServer != null) {
+                        mGattServer.sendResponse(device, requestId, status, offset, value);
+                    }
+                }
+
+                @Override
+                public boolean notify(BluetoothDevice device, BluetoothGattCharacteristic characteristic, byte[] value,
+                                      boolean confirm) {
+                    if (mGattServer == null) {
+                        return false;
+                    }
+                    // notifyCharacteristicChanged sends whatever value the characteristic holds at this point,
+                    // the frame only stands in for the value JS set during the call
+                    byte[] stored = characteristic.getValue();
+                    characteristic.setValue(value);
+                    try {
+                        return mGattServer.notifyCharacteristicChanged(device, characteristic, confirm);
+                    } finally {
+                        characteristic.setValue(stored);
+                    }
+                }
+            }, new DispatcherListener());
+    private final AttributeRegistry<BluetoothGattCharacteristic> mAttributes = mDispatcher.getAttributes();
+    private final ReadValueCache mReadCache = mDispatcher.getReadCache();
+    private final GattStats mStats = mDispatcher.getStats();
+    /** Logs every request, response and event. Off by default, formatting them is not free. */
+    private volatile boolean mVerboseLogging;
+    /** Request, subscription and MTU events waiting to go to JS as one EVENT_BATCH, when batching is on. */
+    private final EventBatch<WritableMap> mEventBatch = new EventBatch<>(new EventBatch.Sink<WritableMap>() {
+        @Override
+        public void send(List<String> names, List<WritableMap> params) {
+            WritableArray events = Arguments.createArray();
+            for (int i = 0; i < names.size(); i++) {
+                WritableMap event = Arguments.createMap();
+                event.putString("type", names.get(i));
+                event.putMap("params", params.get(i));
+                events.pushMap(event);
+            }
+            emit(EVENT_BATCH, events);
+        }
+
+        @Override
+        public void scheduleFlush(long delayMillis) {
+            mEventLoop.removeCallbacks(mFlushEvents);
+            mEventLoop.postDelayed(mFlushEvents, delayMillis);
+        }
+    });
+    private final ServicePipeline<BluetoothGattService> mServicePipeline =
+            new ServicePipeline<>(new ServicePipeline.Server<BluetoothGattService>() {
+                @Override
+                public boolean addService(BluetoothGattService service) {
+                    return mGattServer != null && mGattServer.addService(service);
+                }
+
+                @Override
+                public void removeService(BluetoothGattService service) {
+                    if (mGattServer != null) {
+                        mGattServer.removeService(service);
+                    }
+                }
+            });
     private AdvertiseSettings mAdvSettings;
     private AdvertiseData mAdvData;
     private AdvertiseData mAdvScanResponse;
@@ -59,6 +180,30 @@ public class RnBlePeripheralModule extends ReactContextBaseJavaModule {
     private BluetoothLeAdvertiser mAdvertiser;
     private Promise mAdvPromise;
     private boolean mIsAdvertising;
+    private final AdvertisingScheduler mAdvScheduler = new AdvertisingScheduler();
+    /** Profile the advertiser currently runs with, PROFILE_PAUSED while it's stopped. */
+    private int mAdvProfile = AdvertisingScheduler.PROFILE_PAUSED;
+    /** PHYs requested for every central on connect, 0 leaves the choice to the stack. */
+    private int mPreferredPhyMask;
+    private int mPreferredPhyOption = Phy.OPTION_NO_PREFERRED;
+    /**
+     * Snapshot read from the file on start or last written to it, null when there's none. Its
+     * services are only built once JS confirmed the hash.
+     */
+    private ServiceSnapshot mSnapshot;
+    /** Services built from the snapshot rather than from definitions JS sent. */
+    private final HashSet<UUID> mRestoredServices = new HashSet<>();
+    /** Advertising sets started by JS, by id. */
+    private final AdvertisingSets<AdvertisingSetCallback, AdvertisingSet, Promise> mAdvSets = new AdvertisingSets<>();
+
+    private static final int LEGACY_MAX_DATA_LENGTH = 31;
+    /** One second, in units of 1.25 ms. */
+    private static final int DEFAULT_PERIODIC_INTERVAL = 800;
+
+    /** How long a synchronous method waits for the event loop before giving up. */
+    private static final long SYNC_TIMEOUT_MILLIS = 5000;
+
+    private static final String SNAPSHOT_FILE = "rn-ble-peripheral-gatt.snapshot";
 
     private static final UUID CHARACTERISTIC_USER_DESCRIPTION_UUID = UUID
             .fromString("00002901-0000-1000-8000-00805f9b34fb");
@@ -66,155 +211,286 @@ public class RnBlePeripheralModule extends ReactContextBaseJavaModule {
             .fromString("00002902-0000-1000-8000-00805f9b34fb");
     private final AdvertiseCallback mAdvCallback = new AdvertiseCallback() {
         @Override
-        public void onStartFailure(int errorCode) {
+        public void onStartFailure(final int errorCode) {
             super.onStartFailure(errorCode);
-            mAdvPromise = null;
-            Log.e(TAG, "Not broadcasting: " + errorCode);
-            int statusText;
-            switch (errorCode) {
-                case ADVERTISE_FAILED_ALREADY_STARTED:
-                    Log.w(TAG, "App was already advertising");
-                    break;
-                case ADVERTISE_FAILED_DATA_TOO_LARGE:
-                case ADVERTISE_FAILED_FEATURE_UNSUPPORTED:
-                case ADVERTISE_FAILED_INTERNAL_ERROR:
-                case ADVERTISE_FAILED_TOO_MANY_ADVERTISERS:
-                    if (mAdvPromise != null) {
-                        mAdvPromise.reject("onStartFailure");
+            mEventLoop.post(new Runnable() {
+                @Override
+                public void run() {
+                    Promise promise = mAdvPromise;
+                    mAdvPromise = null;
+                    Log.e(TAG, "Not broadcasting: " + errorCode);
+                    int statusText;
+                    switch (errorCode) {
+                        case ADVERTISE_FAILED_ALREADY_STARTED:
+                            Log.w(TAG, "App was already advertising");
+                            if (promise != null) {
+                                promise.resolve("success");
+                            }
+                            break;
+                        case ADVERTISE_FAILED_DATA_TOO_LARGE:
+                        case ADVERTISE_FAILED_FEATURE_UNSUPPORTED:
+                        case ADVERTISE_FAILED_INTERNAL_ERROR:
+                        case ADVERTISE_FAILED_TOO_MANY_ADVERTISERS:
+                            if (promise != null) {
+                                promise.reject("onStartFailure");
+                            }
+                            break;
+                        default:
+                            Log.wtf(TAG, "Unhandled error: " + errorCode);
                     }
-                    break;
-                default:
-                    Log.wtf(TAG, "Unhandled error: " + errorCode);
-            }
+                }
+            });
         }
 
         @Override
-        public void onStartSuccess(AdvertiseSettings settingsInEffect) {
+        public void onStartSuccess(final AdvertiseSettings settingsInEffect) {
             super.onStartSuccess(settingsInEffect);
-            if (mAdvPromise != null) {
-                mAdvPromise.resolve("success");
-            }
-            mAdvPromise = null;
+            mEventLoop.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mAdvPromise != null) {
+                        mAdvPromise.resolve("success");
+                    }
+                    mAdvPromise = null;
+                }
+            });
         }
     };
     private final BluetoothGattServerCallback mGattServerCallback = new BluetoothGattServerCallback() {
         @Override
-        public void onConnectionStateChange(BluetoothDevice device, final int status, int newState) {
+        public void onConnectionStateChange(final BluetoothDevice device, final int status, final int newState) {
             super.onConnectionStateChange(device, status, newState);
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                if (newState == BluetoothGatt.STATE_CONNECTED) {
-                    Log.v(TAG, "Connected to device: " + device.getAddress());
-                } else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
-                    Log.v(TAG, "Disconnected from device");
+            postGattCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (status == BluetoothGatt.GATT_SUCCESS) {
+                        if (newState == BluetoothGatt.STATE_CONNECTED) {
+                            Log.v(TAG, "Connected to device: " + device.getAddress());
+                            mDispatcher.onConnected(device);
+                            requestPhy(device);
+                        } else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
+                            Log.v(TAG, "Disconnected from device");
+                            mDispatcher.onDisconnected(device);
+                        }
+                    } else {
+                        // There are too many gatt errors (some of them not even in the documentation) so we just
+                        // show the error to the user.
+                        Log.e(TAG, "Error when connecting: " + status);
+                        if (newState == BluetoothGatt.STATE_DISCONNECTED) {
+                            mDispatcher.onDisconnected(device);
+                        }
+                    }
+                    mAdvScheduler.setConnectionCount(mDispatcher.getConnectionCount(), System.nanoTime());
+                    updateAdvertising();
                 }
-            } else {
-                // There are too many gatt errors (some of them not even in the documentation) so we just
-                // show the error to the user.
-                Log.e(TAG, "Error when connecting: " + status);
-            }
+            });
         }
 
         @Override
-        public void onCharacteristicReadRequest(BluetoothDevice device, int requestId, int offset,
-                                                BluetoothGattCharacteristic characteristic) {
+        public void onCharacteristicReadRequest(final BluetoothDevice device, final int requestId, final int offset,
+                                                final BluetoothGattCharacteristic characteristic) {
             super.onCharacteristicReadRequest(device, requestId, offset, characteristic);
-            Log.d(TAG, "Device tried to read characteristic: " + characteristic.getUuid());
-            Log.d(TAG, "Value: " + Arrays.toString(characteristic.getValue()));
-            mRequestMap.put(String.valueOf(requestId), new GattRequest(requestId, offset, device, characteristic));
-            WritableMap params = Arguments.createMap();
-            params.putString("requestId", String.valueOf(requestId));
-            params.putInt("offset", offset);
-            params.putString("characteristicUuid", characteristic.getUuid().toString());
-            params.putString("serviceUuid", characteristic.getService().getUuid().toString());
-            sendEvent(READ_REQUEST, params);
+            final long receivedAt = System.nanoTime();
+            postGattCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (mVerboseLogging) {
+                        Log.d(TAG, "Device tried to read characteristic: " + characteristic.getUuid());
+                    }
+                    mDispatcher.onReadRequest(device, requestId, offset, characteristic, receivedAt);
+                }
+            });
+        }
+
+        @Override
+        public void onServiceAdded(final int status, final BluetoothGattService service) {
+            super.onServiceAdded(status, service);
+            postGattCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (status != BluetoothGatt.GATT_SUCCESS) {
+                        Log.e(TAG, "Failed to add service " + service.getUuid() + ": " + status);
+                    }
+                    mServicePipeline.onServiceAdded(status == BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public void onPhyUpdate(final BluetoothDevice device, final int txPhy, final int rxPhy, final int status) {
+            super.onPhyUpdate(device, txPhy, rxPhy, status);
+            postGattCallback(new Runnable() {
+                @Override
+                public void run() {
+                    onPhy(device, txPhy, rxPhy, status);
+                }
+            });
+        }
+
+        @Override
+        public void onPhyRead(final BluetoothDevice device, final int txPhy, final int rxPhy, final int status) {
+            super.onPhyRead(device, txPhy, rxPhy, status);
+            postGattCallback(new Runnable() {
+                @Override
+                public void run() {
+                    onPhy(device, txPhy, rxPhy, status);
+                }
+            });
+        }
+
+        private void onPhy(BluetoothDevice device, int txPhy, int rxPhy, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(TAG, "PHY update of " + device.getAddress() + " failed: " + status);
+                return;
+            }
+            if (mVerboseLogging) {
+                Log.v(TAG, "PHY of " + device.getAddress() + ": tx " + txPhy + " rx " + rxPhy);
+            }
+            mDispatcher.onPhyChanged(device, txPhy, rxPhy);
+        }
 
+        @Override
+        public void onMtuChanged(final BluetoothDevice device, final int mtu) {
+            super.onMtuChanged(device, mtu);
+            postGattCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (mVerboseLogging) {
+                        Log.v(TAG, "MTU changed: " + mtu);
+                    }
+                    mDispatcher.onMtuChanged(device, mtu);
+                }
+            });
         }
 
-       /* @Override
-        public void onNotificationSent(BluetoothDevice device, int status) {
+        @Override
+        public void onNotificationSent(final BluetoothDevice device, final int status) {
             super.onNotificationSent(device, status);
-            Log.v(TAG, "Notification sent. Status: " + status);
-        }*/
+            postGattCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (mVerboseLogging) {
+                        Log.v(TAG, "Notification sent. Status: " + status);
+                    }
+                    mDispatcher.onNotificationSent(device, status == BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
 
         @Override
-        public void onCharacteristicWriteRequest(BluetoothDevice device, int requestId,
-                                                 BluetoothGattCharacteristic characteristic, boolean preparedWrite, boolean responseNeeded,
-                                                 int offset, byte[] value) {
+        public void onCharacteristicWriteRequest(final BluetoothDevice device, final int requestId,
+                                                 final BluetoothGattCharacteristic characteristic, final boolean preparedWrite, final boolean responseNeeded,
+                                                 final int offset, final byte[] value) {
             super.onCharacteristicWriteRequest(device, requestId, characteristic, preparedWrite,
                     responseNeeded, offset, value);
-            Log.v(TAG, "Characteristic Write request: " + Arrays.toString(value));
-            mRequestMap.put(String.valueOf(requestId), new GattRequest(requestId, offset, device, characteristic));
-            WritableMap params = Arguments.createMap();
-            params.putString("requestId", String.valueOf(requestId));
-            params.putInt("offset", offset);
-            params.putString("value", Base64.encodeToString(value, Base64.NO_WRAP));
-            params.putString("characteristicUuid", characteristic.getUuid().toString());
-            params.putString("serviceUuid", characteristic.getService().getUuid().toString());
-            sendEvent(WRITE_REQUEST, params);
+            final long receivedAt = System.nanoTime();
+            postGattCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (mVerboseLogging) {
+                        Log.v(TAG, "Characteristic Write request: " + Arrays.toString(value));
+                    }
+                    mDispatcher.onWriteRequest(device, requestId, characteristic, preparedWrite, responseNeeded, offset,
+                            value, receivedAt);
+                }
+            });
+        }
 
+        @Override
+        public void onExecuteWrite(final BluetoothDevice device, final int requestId, final boolean execute) {
+            super.onExecuteWrite(device, requestId, execute);
+            final long receivedAt = System.nanoTime();
+            postGattCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (mVerboseLogging) {
+                        Log.v(TAG, "Execute write: " + execute);
+                    }
+                    mDispatcher.onExecuteWrite(device, requestId, execute, receivedAt);
+                }
+            });
         }
 
         @Override
-        public void onDescriptorReadRequest(BluetoothDevice device, int requestId,
-                                            int offset, BluetoothGattDescriptor descriptor) {
+        public void onDescriptorReadRequest(final BluetoothDevice device, final int requestId,
+                                            final int offset, final BluetoothGattDescriptor descriptor) {
             super.onDescriptorReadRequest(device, requestId, offset, descriptor);
-            Log.d(TAG, "Device tried to read descriptor: " + descriptor.getUuid());
-            Log.d(TAG, "Value: " + Arrays.toString(descriptor.getValue()) + "offset::" + offset);
-            if (offset != 0) {
-                mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_INVALID_OFFSET, offset,
-                        /*value (optional)*/  null);
-                return;
-            }
-            mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset,
-                    descriptor.getValue());
+            postGattCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (mVerboseLogging) {
+                        Log.d(TAG, "Device tried to read descriptor: " + descriptor.getUuid());
+                        Log.d(TAG, "Value: " + Arrays.toString(descriptor.getValue()) + "offset::" + offset);
+                    }
+                    if (CLIENT_CHARACTERISTIC_CONFIGURATION_UUID.equals(descriptor.getUuid())) {
+                        mDispatcher.onConfigurationRead(device, requestId, offset, descriptor.getCharacteristic());
+                    } else if (offset != 0) {
+                        mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_INVALID_OFFSET, offset,
+                                /*value (optional)*/  null);
+                    } else {
+                        mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset,
+                                descriptor.getValue());
+                    }
+                }
+            });
         }
 
         @Override
-        public void onDescriptorWriteRequest(BluetoothDevice device, int requestId,
-                                             BluetoothGattDescriptor descriptor, boolean preparedWrite, boolean responseNeeded,
-                                             int offset,
-                                             byte[] value) {
+        public void onDescriptorWriteRequest(final BluetoothDevice device, final int requestId,
+                                             final BluetoothGattDescriptor descriptor, final boolean preparedWrite, final boolean responseNeeded,
+                                             final int offset,
+                                             final byte[] value) {
             super.onDescriptorWriteRequest(device, requestId, descriptor, preparedWrite, responseNeeded,
                     offset, value);
-            Log.v(TAG, "Descriptor Write Request " + descriptor.getUuid() + " " + Arrays.toString(value));
-            int status = BluetoothGatt.GATT_SUCCESS;
-            if (descriptor.getUuid().toString().equalsIgnoreCase(CLIENT_CHARACTERISTIC_CONFIGURATION_UUID.toString())) {
-                BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
-                boolean supportsNotifications = (characteristic.getProperties() &
-                        BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0;
-                boolean supportsIndications = (characteristic.getProperties() &
-                        BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0;
-
-                if (!(supportsNotifications || supportsIndications)) {
-                    status = BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED;
-                } else if (value.length != 2) {
-                    status = BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH;
-                } else if (Arrays.equals(value, BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE)) {
-                    status = BluetoothGatt.GATT_SUCCESS;
-                    descriptor.setValue(value);
-                } else if (supportsNotifications &&
-                        Arrays.equals(value, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)) {
-                    status = BluetoothGatt.GATT_SUCCESS;
-                    descriptor.setValue(value);
-                } else if (supportsIndications &&
-                        Arrays.equals(value, BluetoothGattDescriptor.ENABLE_INDICATION_VALUE)) {
-                    status = BluetoothGatt.GATT_SUCCESS;
+            postGattCallback(new Runnable() {
+                @Override
+                public void run() {
+                    if (mVerboseLogging) {
+                        Log.v(TAG, "Descriptor Write Request " + descriptor.getUuid() + " " + Arrays.toString(value));
+                    }
+                    if (CLIENT_CHARACTERISTIC_CONFIGURATION_UUID.equals(descriptor.getUuid())) {
+                        mDispatcher.onConfigurationWrite(device, requestId, descriptor.getCharacteristic(),
+                                responseNeeded, value);
+                        return;
+                    }
                     descriptor.setValue(value);
-                } else {
-                    status = BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED;
+                    if (responseNeeded) {
+                        mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS,
+                                /*No need to respond with offset*/  0,
+                                /*No need to respond with a value*/  null);
+                    }
                 }
-            } else {
-                status = BluetoothGatt.GATT_SUCCESS;
-                descriptor.setValue(value);
-            }
-            if (responseNeeded) {
-                mGattServer.sendResponse(device, requestId, status,
-                        /*No need to respond with offset*/  0,
-                        /*No need to respond with a value*/  null);
-            }
+            });
+        }
+    };
+
+    private final Runnable mTimeoutSweep = new Runnable() {
+        @Override
+        public void run() {
+            mDispatcher.sweepTimeouts(System.nanoTime());
+        }
+    };
+
+    private final Runnable mNotificationFlush = new Runnable() {
+        @Override
+        public void run() {
+            mDispatcher.flushNotifications(System.nanoTime());
+        }
+    };
+
+    private final Runnable mFlushEvents = new Runnable() {
+        @Override
+        public void run() {
+            mEventBatch.flush();
         }
     };
 
+    private final Runnable mAdvertisingUpdate = new Runnable() {
+        @Override
+        public void run() {
+            updateAdvertising();
+        }
+    };
 
     public static BluetoothGattDescriptor getClientCharacteristicConfigurationDescriptor() {
         BluetoothGattDescriptor descriptor = new BluetoothGattDescriptor(
@@ -242,7 +518,35 @@ public class RnBlePeripheralModule extends ReactContextBaseJavaModule {
         this.mReactContext = reactContext;
         mBluetoothManager = (BluetoothManager) reactContext.getSystemService(Context.BLUETOOTH_SERVICE);
         mBluetoothAdapter = mBluetoothManager.getAdapter();
+        HandlerThread eventThread = new HandlerThread(TAG);
+        eventThread.start();
+        mEventLoop = new Handler(eventThread.getLooper());
+        // read the last service tree while JS is still loading, it only has to confirm it's unchanged
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                restoreSnapshot();
+            }
+        });
+    }
 
+    @Override
+    public void onCatalystInstanceDestroy() {
+        super.onCatalystInstanceDestroy();
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                closeServer();
+                stopAdvertisingSets();
+                stopRecorder();
+                // tasks already queued behind this one still run, later posts fail
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                    mEventLoop.getLooper().quitSafely();
+                } else {
+                    mEventLoop.getLooper().quit();
+                }
+            }
+        });
     }
 
     @Override
@@ -253,12 +557,23 @@ public class RnBlePeripheralModule extends ReactContextBaseJavaModule {
         map.put(SUBSCRIBED, SUBSCRIBED);
         map.put(UNSUBSCRIBED, UNSUBSCRIBED);
         map.put(WRITE_REQUEST, WRITE_REQUEST);
+        map.put(MTU_CHANGED, MTU_CHANGED);
+        map.put(WRITE_SINK_PROGRESS, WRITE_SINK_PROGRESS);
+        map.put(WRITE_SINK_COMPLETE, WRITE_SINK_COMPLETE);
+        map.put(NOTIFY_STREAM_PROGRESS, NOTIFY_STREAM_PROGRESS);
+        map.put(EVENT_BATCH, EVENT_BATCH);
+        map.put(PHY_CHANGED, PHY_CHANGED);
         return map;
     }
 
     @ReactMethod
-    public void isAdvertising(Promise promise){
-        promise.resolve(mIsAdvertising);
+    public void isAdvertising(final Promise promise){
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                promise.resolve(mIsAdvertising && mAdvProfile != AdvertisingScheduler.PROFILE_PAUSED);
+            }
+        });
     }
 
     @ReactMethod
@@ -272,240 +587,2018 @@ public class RnBlePeripheralModule extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void addService(ReadableMap map, Promise promise) {
-        Log.i(TAG, "add service" + map);
-        if (map != null) {
-            UUID serviceUuid = UUID.fromString(map.getString("uuid"));
-            ReadableArray characteristics = map.getArray("characteristics");
-            Log.i(TAG, "serviceUUID" + serviceUuid);
-            Log.i(TAG, "charact::" + characteristics);
-            if (serviceUuid != null && characteristics != null) {
-                if (mServicesMap.containsKey(serviceUuid.toString())) {
-                    Log.v(TAG, "Service present");
-                    promise.resolve(null);
+    public void addService(final ReadableMap map, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                Log.i(TAG, "add service" + map);
+                ServiceDefinition definition;
+                try {
+                    definition = parseService(map);
+                } catch (RuntimeException e) {
+                    promise.reject("invalid_service", e);
+                    return;
+                }
+                removeRestoredServices(Collections.singletonList(definition));
+                addServices(Collections.singletonList(definition), promise, true);
+            }
+        });
+    }
+
+    /**
+     * Adds a list of service trees in one transaction: either all of them end up in the database or
+     * none do. Resolves with the handles of each service's characteristics, keyed by service UUID.
+     */
+    @ReactMethod
+    public void addServices(final ReadableArray services, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                ArrayList<ServiceDefinition> definitions = new ArrayList<>();
+                try {
+                    for (int i = 0; i < services.size(); i++) {
+                        definitions.add(parseService(services.getMap(i)));
+                    }
+                } catch (RuntimeException e) {
+                    promise.reject("invalid_service", e);
+                    return;
+                }
+                removeRestoredServices(definitions);
+                addServices(definitions, promise, false);
+            }
+        });
+    }
+
+    /**
+     * Builds the services of the snapshot, when it was written for the same hash of the service
+     * definitions. Resolves with the handles like addServices, or with null when there's no such
+     * snapshot; services restored before are removed then, JS has to add its services itself.
+     */
+    @ReactMethod
+    public void restoreServices(final String hash, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                if (mSnapshot != null && mSnapshot.hash.equals(hash)) {
+                    for (ServiceDefinition definition : mSnapshot.services) {
+                        if (!mServicesMap.containsKey(definition.uuid.toString())) {
+                            mRestoredServices.add(definition.uuid);
+                        }
+                    }
+                    addServices(mSnapshot.services, promise, false);
                     return;
                 }
-                int serviceType = map.getBoolean("primary") ? BluetoothGattService.SERVICE_TYPE_PRIMARY :
-                        BluetoothGattService.SERVICE_TYPE_SECONDARY;
-                Log.i(TAG, "serviceType" + serviceType);
-                BluetoothGattService mBluetoothGattService = new BluetoothGattService(serviceUuid,
-                        serviceType);
-                for (int i = 0; i < characteristics.size(); i++) {
-                    ReadableMap characteristic = characteristics.getMap(0);
-                    UUID characteristicUuid = UUID.fromString(characteristic.getString("uuid"));
-                    int property = getProperty(characteristic.getArray("properties"));
-                    int permission = getPermission(characteristic.getArray("permissions"));
-                    BluetoothGattCharacteristic mCharacteristic = new BluetoothGattCharacteristic(characteristicUuid,
-                            property,
-                            permission);
-                    mCharacteristic.addDescriptor(getClientCharacteristicConfigurationDescriptor());
-                    mBluetoothGattService.addCharacteristic(mCharacteristic);
-                }
-                mServicesMap.put(serviceUuid.toString(), mBluetoothGattService);
+                if (mSnapshot != null) {
+                    Log.i(TAG, "GATT snapshot is stale");
+                    mSnapshot = null;
+                }
+                removeRestoredServices(null);
                 promise.resolve(null);
-            } else {
-                promise.reject("invalid_service");
             }
-        } else {
-            promise.reject("invalid_service");
-        }
+        });
     }
 
+    /**
+     * Same as addServices, also writing the services to the snapshot restored on the next start.
+     */
     @ReactMethod
-    public void startAdvertising(ReadableMap map,
-                                 Promise promise) {
-        Log.i(TAG, "start Advertising" + map);
-        if (map == null) {
-            promise.reject("invalid_advertisement");
-            return;
-        }
-        String deviceName = map.getString("name");
-        mBluetoothAdapter.setName(deviceName);
-        ReadableArray serviceUuids = map.getArray("serviceUuids");
-        if (serviceUuids == null || serviceUuids.size() == 0) {
-            Log.e(TAG, "startAdvertisement is null or empty");
-            promise.reject("invalid_advertisement");
+    public void addServicesAndSnapshot(final ReadableArray services, final String hash, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                ArrayList<ServiceDefinition> definitions = new ArrayList<>();
+                try {
+                    for (int i = 0; i < services.size(); i++) {
+                        definitions.add(parseService(services.getMap(i)));
+                    }
+                } catch (RuntimeException e) {
+                    promise.reject("invalid_service", e);
+                    return;
+                }
+                ServiceSnapshot snapshot = new ServiceSnapshot(hash, definitions);
+                try {
+                    writeSnapshot(snapshot.encode());
+                    mSnapshot = snapshot;
+                } catch (IOException e) {
+                    // only the next start gets slower
+                    Log.w(TAG, "Couldn't write the GATT snapshot", e);
+                }
+                removeRestoredServices(definitions);
+                addServices(definitions, promise, false);
+            }
+        });
+    }
+
+    /**
+     * Deletes the snapshot file and removes the services built from it, resolving with their UUIDs.
+     */
+    @ReactMethod
+    public void clearServiceSnapshot(final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                mSnapshot = null;
+                getSnapshotFile().delete();
+                WritableArray removed = Arguments.createArray();
+                for (UUID uuid : removeRestoredServices(null)) {
+                    removed.pushString(uuid.toString());
+                }
+                promise.resolve(removed);
+            }
+        });
+    }
+
+    private File getSnapshotFile() {
+        return new File(mReactContext.getFilesDir(), SNAPSHOT_FILE);
+    }
+
+    /**
+     * Reads the snapshot file, so that restoreServices only has to build its services. Drops the
+     * file when it can't be read.
+     */
+    private void restoreSnapshot() {
+        File file = getSnapshotFile();
+        if (!file.exists()) {
             return;
         }
-        if (mGattServer == null) {
-            mGattServer = mBluetoothManager.openGattServer(mReactContext, mGattServerCallback);
-        }
-        if (mGattServer == null) {
-            //ensureBleFeaturesAvailable();
-            promise.reject("invalid_advertisement");
+        ServiceSnapshot snapshot;
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                byte[] data = new byte[(int) input.length()];
+                input.readFully(data);
+                snapshot = ServiceSnapshot.decode(data);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable GATT snapshot", e);
+            file.delete();
             return;
         }
-        this.mAdvPromise = promise;
-        mAdvSettings = new AdvertiseSettings.Builder()
-                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_BALANCED)
-                .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM)
-                .setConnectable(true)
-                .build();
+        mSnapshot = snapshot;
+        Log.i(TAG, "Read " + snapshot.services.size() + " services from the GATT snapshot");
+    }
 
-        mAdvScanResponse = new AdvertiseData.Builder()
-                .setIncludeDeviceName(true)
-                .build();
-        AdvertiseData.Builder builder = new AdvertiseData.Builder()
-                .setIncludeTxPowerLevel(true);
-        Log.v(TAG, "serviceUUIDS:" + serviceUuids);
-        for (int i = 0; i < serviceUuids.size(); i++) {
-            String serviceUuid = serviceUuids.getString(0);
+    /**
+     * Removes the services built from the snapshot that have the UUID of one of the definitions,
+     * or all of them when definitions is null, so they're not served with a stale definition.
+     * Returns the UUIDs of the services removed.
+     */
+    private List<UUID> removeRestoredServices(List<ServiceDefinition> definitions) {
+        ArrayList<UUID> removed = new ArrayList<>();
+        for (UUID uuid : new ArrayList<>(mRestoredServices)) {
+            if (definitions != null && !containsService(definitions, uuid)) {
+                continue;
+            }
+            BluetoothGattService service = mServicesMap.get(uuid.toString());
+            if (service != null && mGattServer != null) {
+                mGattServer.removeService(service);
+            }
+            forgetService(uuid);
+            mRestoredServices.remove(uuid);
+            removed.add(uuid);
+        }
+        return removed;
+    }
 
-            builder.addServiceUuid(new ParcelUuid(UUID.fromString(serviceUuid)));
-            BluetoothGattService mBluetoothGattService = mServicesMap.get(serviceUuid);
-            if (mGattServer.getService(mBluetoothGattService.getUuid()) == null) {
-                Log.i(TAG, "service not persent so adding");
-                mGattServer.addService(mBluetoothGattService);
+    private static boolean containsService(List<ServiceDefinition> definitions, UUID uuid) {
+        for (ServiceDefinition definition : definitions) {
+            if (definition.uuid.equals(uuid)) {
+                return true;
             }
         }
-        mAdvData = builder
-                .build();
-        Log.v(TAG, "serviceUUIDS:" + mGattServer.getServices());
-        for (BluetoothGattService service : mGattServer.getServices()) {
-            Log.v(TAG, "characteristics:" + service.getCharacteristics());
+        return false;
+    }
+
+    /**
+     * Replaces the snapshot file in one rename, so a crash never leaves half of one behind.
+     */
+    private void writeSnapshot(byte[] data) throws IOException {
+        File file = getSnapshotFile();
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(temp);
+        try {
+            output.write(data);
+            output.getFD().sync();
+        } finally {
+            output.close();
         }
-        if (mBluetoothAdapter.isMultipleAdvertisementSupported()) {
-            Log.i(TAG, "adv started");
-            mAdvertiser = mBluetoothAdapter.getBluetoothLeAdvertiser();
-            mAdvertiser.startAdvertising(mAdvSettings, mAdvData, mAdvScanResponse, mAdvCallback);
-            mIsAdvertising=true;
-        } else {
-            promise.reject("invalid_advertisement");
-            //not supported
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Couldn't rename " + temp);
         }
     }
 
-    @ReactMethod
-    public void removeService(ReadableMap map, Promise promise) {
-        Log.i(TAG, "removeService" + map);
-        if (map != null) {
-            UUID serviceUuid = UUID.fromString(map.getString("uuid"));
-            if (serviceUuid != null) {
-                mServicesMap.remove(serviceUuid);
-                promise.resolve(null);
+    /**
+     * Builds the services that aren't defined yet. When the server is open they're added to it right
+     * away, and the promise resolves once the stack reported every one of them as added; otherwise
+     * they're added when advertising starts.
+     */
+    private void addServices(List<ServiceDefinition> definitions, final Promise promise, final boolean single) {
+        final ArrayList<BluetoothGattService> roots = new ArrayList<>();
+        final ArrayList<BluetoothGattService> created = new ArrayList<>();
+        for (ServiceDefinition definition : definitions) {
+            BluetoothGattService service = mServicesMap.get(definition.uuid.toString());
+            if (service == null) {
+                service = buildService(definition, created);
             } else {
-                promise.reject("invalid_service");
+                Log.v(TAG, "Service present");
             }
-        } else {
-            promise.reject("invalid_service");
+            roots.add(service);
+        }
+        if (mGattServer == null || created.isEmpty()) {
+            promise.resolve(getHandles(roots, single));
+            return;
+        }
+        mServicePipeline.submit(new ServicePipeline.Transaction<BluetoothGattService>(created) {
+            @Override
+            protected void onComplete(boolean success) {
+                if (success) {
+                    promise.resolve(getHandles(roots, single));
+                    return;
+                }
+                for (BluetoothGattService service : created) {
+                    forgetService(service.getUuid());
+                }
+                promise.reject("service_add_failed");
+            }
+        });
+    }
+
+    /**
+     * Creates the service and its included services, registering their characteristics. Every
+     * service created is added to created, included services before the services including them.
+     */
+    private BluetoothGattService buildService(ServiceDefinition definition, List<BluetoothGattService> created) {
+        BluetoothGattService service = new BluetoothGattService(definition.uuid,
+                definition.primary ? BluetoothGattService.SERVICE_TYPE_PRIMARY
+                        : BluetoothGattService.SERVICE_TYPE_SECONDARY);
+        for (ServiceDefinition includedDefinition : definition.includedServices) {
+            BluetoothGattService included = mServicesMap.get(includedDefinition.uuid.toString());
+            service.addService(included != null ? included : buildService(includedDefinition, created));
+        }
+        for (ServiceDefinition.CharacteristicDefinition characteristicDefinition : definition.characteristics) {
+            BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(
+                    characteristicDefinition.uuid, characteristicDefinition.properties,
+                    characteristicDefinition.permissions);
+            characteristic.addDescriptor(getClientCharacteristicConfigurationDescriptor());
+            service.addCharacteristic(characteristic);
+            int handle = mAttributes.register(definition.uuid, characteristicDefinition.uuid, characteristic);
+            mReadCache.setMode(handle, characteristicDefinition.cacheMode, characteristicDefinition.cacheTtl);
+            if (characteristicDefinition.value != null) {
+                characteristic.setValue(characteristicDefinition.value);
+                mReadCache.put(handle, characteristicDefinition.value);
+            }
+            mDispatcher.setNotifyPolicy(handle, characteristicDefinition.notifyConflate,
+                    characteristicDefinition.notifyDedupe, characteristicDefinition.notifyMaxHz);
+            mDispatcher.setSchema(handle, characteristicDefinition.schema);
+        }
+        mServicesMap.put(definition.uuid.toString(), service);
+        created.add(service);
+        return service;
+    }
 
+    /**
+     * Parses a list of {name, type, endian} fields. Throws when a type is unknown or the layout invalid.
+     */
+    private static ValueSchema parseSchema(ReadableArray array) {
+        ArrayList<ValueSchema.Field> fields = new ArrayList<>();
+        for (int i = 0; i < array.size(); i++) {
+            ReadableMap field = array.getMap(i);
+            boolean bigEndian = field.hasKey("endian") && "big".equals(field.getString("endian"));
+            fields.add(new ValueSchema.Field(field.getString("name"), ValueSchema.parseType(field.getString("type")),
+                    bigEndian));
         }
+        return new ValueSchema(fields);
     }
 
-    @ReactMethod
-    public void removeAllServices(Promise promise) {
-        Log.i(TAG, "removeAllService");
-        mServicesMap.clear();
-        promise.resolve(null);
+    private static boolean getBoolean(ReadableMap map, String key) {
+        return map != null && map.hasKey(key) && !map.isNull(key) && map.getBoolean(key);
     }
 
-    @ReactMethod
-    public void stopAdvertising(Promise promise) {
-        Log.i(TAG, "Stop advertising");
-        if (mAdvPromise != null) {
-            mAdvPromise = null;
+    /**
+     * Parses a service tree sent by JS. Throws when it's incomplete or malformed.
+     */
+    private static ServiceDefinition parseService(ReadableMap map) {
+        if (map == null) {
+            throw new IllegalArgumentException("Service is null");
         }
-        if (mGattServer != null) {
-            mGattServer.clearServices();
-            mGattServer.close();
-            mGattServer = null;
+        UUID serviceUuid = UUID.fromString(map.getString("uuid"));
+        boolean primary = !map.hasKey("primary") || map.isNull("primary") || map.getBoolean("primary");
+        ArrayList<ServiceDefinition.CharacteristicDefinition> characteristics = new ArrayList<>();
+        ReadableArray characteristicArray = map.hasKey("characteristics") ? map.getArray("characteristics") : null;
+        if (characteristicArray != null) {
+            for (int i = 0; i < characteristicArray.size(); i++) {
+                ReadableMap characteristic = characteristicArray.getMap(i);
+                String cacheMode = characteristic.hasKey("cacheMode") ? characteristic.getString("cacheMode") : null;
+                long cacheTtl = characteristic.hasKey("cacheTtl") ? (long) characteristic.getDouble("cacheTtl") : 0;
+                byte[] value = characteristic.hasKey("value") && !characteristic.isNull("value")
+                        ? Base64Codec.decode(characteristic.getString("value")) : null;
+                ReadableMap notifyPolicy = characteristic.hasKey("notifyPolicy")
+                        && !characteristic.isNull("notifyPolicy") ? characteristic.getMap("notifyPolicy") : null;
+                characteristics.add(new ServiceDefinition.CharacteristicDefinition(
+                        UUID.fromString(characteristic.getString("uuid")),
+                        getProperty(characteristic.getArray("properties")),
+                        getPermission(characteristic.getArray("permissions")),
+                        ReadValueCache.parseMode(cacheMode), cacheTtl, value,
+                        getBoolean(notifyPolicy, "conflate"), getBoolean(notifyPolicy, "dedupe"),
+                        notifyPolicy != null && notifyPolicy.hasKey("maxHz") ? notifyPolicy.getDouble("maxHz") : 0,
+                        characteristic.hasKey("schema") && !characteristic.isNull("schema")
+                                ? parseSchema(characteristic.getArray("schema")) : null));
+            }
         }
-        if (mBluetoothAdapter.isEnabled() && mAdvertiser != null) {
-            // If stopAdvertising() gets called before close() a null
-            // pointer exception is raised.
-            mAdvertiser.stopAdvertising(mAdvCallback);
-            mIsAdvertising=false;
+        ArrayList<ServiceDefinition> includedServices = new ArrayList<>();
+        ReadableArray serviceArray = map.hasKey("services") ? map.getArray("services") : null;
+        if (serviceArray != null) {
+            for (int i = 0; i < serviceArray.size(); i++) {
+                includedServices.add(parseService(serviceArray.getMap(i)));
+            }
         }
-        promise.resolve(null);
+        return new ServiceDefinition(serviceUuid, primary, characteristics, includedServices);
     }
 
     @ReactMethod
-    public void respond(String requestId, String status, String value, Promise promise) {
-        Log.i(TAG, "responding" + requestId + "status" + status + " value:" + value);
-        GattRequest request = mRequestMap.get(requestId);
-        if (request != null) {
-            byte[] valueArr = null;
-            if (value != null) {
-                String decodedValue = new String(Base64.decode(value, Base64.DEFAULT));
-                valueArr = Base64.decode(value, Base64.DEFAULT);
-                Log.i(TAG, "decoded value" + decodedValue);
-                Log.i(TAG, "decoded value in byte:" + Arrays.toString(decodedValue.getBytes()));
-                Log.i(TAG, "decoded value" + Arrays.toString(valueArr));
+    public void startAdvertising(final ReadableMap map,
+                                 final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                Log.i(TAG, "start Advertising" + map);
+                if (map == null) {
+                    promise.reject("invalid_advertisement");
+                    return;
+                }
+                String deviceName = map.getString("name");
+                mBluetoothAdapter.setName(deviceName);
+                ReadableArray serviceUuids = map.getArray("serviceUuids");
+                if (serviceUuids == null || serviceUuids.size() == 0) {
+                    Log.e(TAG, "startAdvertisement is null or empty");
+                    promise.reject("invalid_advertisement");
+                    return;
+                }
+                if (mGattServer == null) {
+                    mGattServer = mBluetoothManager.openGattServer(mReactContext, mGattServerCallback);
+                }
+                if (mGattServer == null) {
+                    //ensureBleFeaturesAvailable();
+                    promise.reject("invalid_advertisement");
+                    return;
+                }
+                setAdvertisingProfile(map);
 
-                request.characteristic.setValue(valueArr);
-            }
-            int statusInt = BluetoothGatt.GATT_INVALID_OFFSET;
-            if ("success".equalsIgnoreCase(status)) {
-                statusInt = BluetoothGatt.GATT_SUCCESS;
+                mAdvScanResponse = new AdvertiseData.Builder()
+                        .setIncludeDeviceName(true)
+                        .build();
+                AdvertiseData.Builder builder = new AdvertiseData.Builder()
+                        .setIncludeTxPowerLevel(true);
+                Log.v(TAG, "serviceUUIDS:" + serviceUuids);
+                for (int i = 0; i < serviceUuids.size(); i++) {
+                    builder.addServiceUuid(new ParcelUuid(UUID.fromString(serviceUuids.getString(i))));
+                }
+                mAdvData = builder
+                        .build();
+                // every defined service has to be in the database before centrals can connect,
+                // the stack takes them one at a time
+                ArrayList<BluetoothGattService> services = new ArrayList<>();
+                for (BluetoothGattService service : getServicesInAddOrder()) {
+                    if (mGattServer.getService(service.getUuid()) == null && !mServicePipeline.contains(service)) {
+                        Log.i(TAG, "service not persent so adding");
+                        services.add(service);
+                    }
+                }
+                mServicePipeline.submit(new ServicePipeline.Transaction<BluetoothGattService>(services) {
+                    @Override
+                    protected void onComplete(boolean success) {
+                        if (!success) {
+                            promise.reject("service_add_failed");
+                            return;
+                        }
+                        if (mBluetoothAdapter.isMultipleAdvertisementSupported()) {
+                            Log.i(TAG, "adv started");
+                            mAdvertiser = mBluetoothAdapter.getBluetoothLeAdvertiser();
+                            if (mAdvProfile != AdvertisingScheduler.PROFILE_PAUSED) {
+                                // advertising again with new data
+                                mAdvertiser.stopAdvertising(mAdvCallback);
+                                mAdvProfile = AdvertisingScheduler.PROFILE_PAUSED;
+                            }
+                            mIsAdvertising=true;
+                            mAdvScheduler.setPaused(false);
+                            mAdvScheduler.onStart(System.nanoTime());
+                            updateAdvertising();
+                            if (mAdvProfile == AdvertisingScheduler.PROFILE_PAUSED) {
+                                // every connection slot is taken, advertising resumes once one frees up
+                                promise.resolve("success");
+                            } else {
+                                mAdvPromise = promise;
+                            }
+                        } else {
+                            promise.reject("invalid_advertisement");
+                            //not supported
+                        }
+                    }
+                });
             }
-            Log.i(TAG, "respond" + requestId + " " + statusInt + " " + value);
-            mGattServer.sendResponse(request.device, request.requestId, statusInt, request.offset,
-                    request.characteristic.getValue());
-            mRequestMap.remove(requestId);
-            promise.resolve(null);
-        } else {
-            promise.reject("invalid_request");
-        }
-
+        });
     }
 
+    /**
+     * Switches the profile of the running advertisement, starting a new burst for the adaptive one.
+     */
     @ReactMethod
-    public void notify(String characteristicUuid,String value,Promise promise){
-        BluetoothGattCharacteristic characteristic=null;
-        if (mGattServer.getServices()==null|| mGattServer.getServices().size()==0){
-            promise.reject("service_not_found");
-            return;
-        }
-        for (BluetoothGattService service : mGattServer.getServices()) {
-            for (BluetoothGattCharacteristic serviceCharacteristic : service.getCharacteristics()) {
-                if (serviceCharacteristic.getUuid().equals(UUID.fromString(characteristicUuid))){
-                    characteristic=serviceCharacteristic;
-                    break;
+    public void setAdvertisingProfile(final ReadableMap map, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                if (map == null) {
+                    promise.reject("invalid_profile");
+                    return;
                 }
+                setAdvertisingProfile(map);
+                mAdvScheduler.onStart(System.nanoTime());
+                updateAdvertising();
+                promise.resolve(null);
             }
-        }
-        if (characteristic==null){
-            promise.reject("characteristic_not_found");
+        });
+    }
+
+    private void setAdvertisingProfile(ReadableMap map) {
+        String profile = map.hasKey("profile") ? map.getString("profile") : null;
+        long burstDuration = map.hasKey("burstDuration") ? (long) map.getDouble("burstDuration")
+                : AdvertisingScheduler.DEFAULT_BURST_DURATION;
+        int maxConnections = map.hasKey("maxConnections") ? map.getInt("maxConnections") : 0;
+        mAdvScheduler.setProfile(AdvertisingScheduler.parseProfile(profile), burstDuration, maxConnections);
+    }
+
+    /**
+     * Restarts the advertiser when the scheduler picks another profile than the one it runs with,
+     * then runs again when the profile changes next.
+     */
+    private void updateAdvertising() {
+        mEventLoop.removeCallbacks(mAdvertisingUpdate);
+        if (!mIsAdvertising || mAdvertiser == null) {
             return;
         }
-        byte[] valueArr = Base64.decode(value, Base64.DEFAULT);
-        boolean sent=characteristic.setValue(valueArr);
-        for (BluetoothDevice connectedDevice :  mBluetoothManager.getConnectedDevices(BluetoothProfile.GATT)) {
-            mGattServer.notifyCharacteristicChanged(connectedDevice,characteristic,false);
+        long now = System.nanoTime();
+        int profile = mAdvScheduler.getProfile(now);
+        if (profile != mAdvProfile) {
+            if (mVerboseLogging) {
+                Log.d(TAG, "Advertising profile " + mAdvProfile + " -> " + profile);
+            }
+            if (mAdvProfile != AdvertisingScheduler.PROFILE_PAUSED) {
+                mAdvertiser.stopAdvertising(mAdvCallback);
+            }
+            if (profile != AdvertisingScheduler.PROFILE_PAUSED) {
+                mAdvSettings = buildAdvertiseSettings(profile);
+                mAdvertiser.startAdvertising(mAdvSettings, mAdvData, mAdvScanResponse, mAdvCallback);
+            }
+            mAdvProfile = profile;
         }
-        if (sent){
-            promise.resolve(null);
-        }else {
-            promise.reject("The underlying transmit queue is full.");
+        long nextChange = mAdvScheduler.getNextChange(now);
+        if (nextChange != Long.MAX_VALUE) {
+            mEventLoop.postDelayed(mAdvertisingUpdate, Math.max(1, (nextChange - now) / 1000000));
         }
-
     }
 
-    private void sendEvent(String eventName, WritableMap params) {
-        Log.i(TAG, "sending:" + eventName + " with params:" + params);
-        getReactApplicationContext()
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(eventName, params);
+    private static AdvertiseSettings buildAdvertiseSettings(int profile) {
+        int mode;
+        int txPower;
+        switch (profile) {
+            case AdvertisingScheduler.PROFILE_LOW_LATENCY:
+                mode = AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY;
+                txPower = AdvertiseSettings.ADVERTISE_TX_POWER_HIGH;
+                break;
+            case AdvertisingScheduler.PROFILE_LOW_POWER:
+                mode = AdvertiseSettings.ADVERTISE_MODE_LOW_POWER;
+                txPower = AdvertiseSettings.ADVERTISE_TX_POWER_LOW;
+                break;
+            default:
+                mode = AdvertiseSettings.ADVERTISE_MODE_BALANCED;
+                txPower = AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM;
+        }
+        return new AdvertiseSettings.Builder()
+                .setAdvertiseMode(mode)
+                .setTxPowerLevel(txPower)
+                .setConnectable(true)
+                .build();
     }
 
-    @Override
-    public String getName() {
-        return "RNBlePeripheral";
+    /**
+     * Resolves with what the controller supports beyond legacy advertising.
+     */
+    @ReactMethod
+    public void getAdvertisingCapabilities(final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                boolean supported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+                WritableMap capabilities = Arguments.createMap();
+                capabilities.putBoolean("extended", supported && mBluetoothAdapter.isLeExtendedAdvertisingSupported());
+                capabilities.putBoolean("periodic", supported && mBluetoothAdapter.isLePeriodicAdvertisingSupported());
+                capabilities.putInt("maxDataLength", supported ? mBluetoothAdapter.getLeMaximumAdvertisingDataLength()
+                        : LEGACY_MAX_DATA_LENGTH);
+                promise.resolve(capabilities);
+            }
+        });
     }
 
-    public static class GattRequest {
-        int requestId;
-        int offset;
-        BluetoothDevice device;
-        BluetoothGattCharacteristic characteristic;
-
-        public GattRequest(int requestId, int offset, BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
-            this.requestId = requestId;
-            this.offset = offset;
-            this.device = device;
-            this.characteristic = characteristic;
-        }
-    }
+    /**
+     * Starts an advertising set next to the legacy advertisement: extended unless legacy is set,
+     * and periodic when periodic options are given. Resolves with the TX power the stack picked,
+     * in dBm, once the set runs.
+     */
+    @ReactMethod
+    public void startAdvertisingSet(final String id, final ReadableMap options, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                if (options == null) {
+                    promise.reject("invalid_advertisement");
+                    return;
+                }
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+                    promise.reject("not_supported");
+                    return;
+                }
+                BluetoothLeAdvertiser advertiser = mBluetoothAdapter.getBluetoothLeAdvertiser();
+                boolean legacy = getBoolean(options, "legacy");
+                ReadableMap periodic = getMap(options, "periodic");
+                if (advertiser == null || (!legacy && !mBluetoothAdapter.isLeExtendedAdvertisingSupported())
+                        || (periodic != null && !mBluetoothAdapter.isLePeriodicAdvertisingSupported())) {
+                    promise.reject("not_supported");
+                    return;
+                }
+                AdvertisingSetParameters parameters;
+                PeriodicAdvertisingParameters periodicParameters = null;
+                AdvertisingSets.Payload data;
+                AdvertisingSets.Payload scanResponse;
+                AdvertisingSets.Payload periodicData;
+                try {
+                    data = parsePayload(getMap(options, "data"));
+                    scanResponse = parsePayload(getMap(options, "scanResponse"));
+                    periodicData = parsePayload(getMap(options, "periodicData"));
+                    parameters = buildAdvertisingSetParameters(options, legacy, scanResponse != null);
+                    if (periodic != null) {
+                        periodicParameters = buildPeriodicAdvertisingParameters(periodic);
+                    }
+                } catch (RuntimeException e) {
+                    promise.reject("invalid_advertisement", e);
+                    return;
+                }
+                AdvertisingSetEvents callback = new AdvertisingSetEvents(id);
+                AdvertisingSets.Entry<AdvertisingSetCallback, AdvertisingSet, Promise> entry =
+                        mAdvSets.add(id, callback, promise);
+                if (entry == null) {
+                    promise.reject("advertising_set_exists");
+                    return;
+                }
+                entry.setPayload(AdvertisingSets.DATA, data);
+                entry.setPayload(AdvertisingSets.SCAN_RESPONSE, scanResponse);
+                entry.setPayload(AdvertisingSets.PERIODIC_DATA, periodicData);
+                // the callbacks run on the event loop
+                advertiser.startAdvertisingSet(parameters, buildAdvertiseData(data), buildAdvertiseData(scanResponse),
+                        periodicParameters, buildAdvertiseData(periodicData), callback, mEventLoop);
+            }
+        });
+    }
+
+    /**
+     * Replaces the advertisement (data), scan response or periodic advertisement (periodicData) of
+     * a running set, without restarting it. Resolves once the stack took it.
+     */
+    @ReactMethod
+    public void setAdvertisingSetData(final String id, final String kind, final ReadableMap payload,
+                                      final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                AdvertisingSets.Payload parsed;
+                try {
+                    parsed = parsePayload(payload);
+                } catch (RuntimeException e) {
+                    promise.reject("invalid_advertisement", e);
+                    return;
+                }
+                updateAdvertisingSet(id, kind, parsed, promise);
+            }
+        });
+    }
+
+    /**
+     * Replaces the data of one service in the advertisement, scan response or periodic
+     * advertisement of a running set, keeping the rest. Only the Base64 value crosses the bridge,
+     * for broadcasting readings.
+     */
+    @ReactMethod
+    public void setAdvertisingSetServiceData(final String id, final String kind, final String serviceUuid,
+                                             final String value, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                AdvertisingSets.Entry<AdvertisingSetCallback, AdvertisingSet, Promise> entry = mAdvSets.get(id);
+                int kindInt = parsePayloadKind(kind);
+                AdvertisingSets.Payload current = entry != null && kindInt != -1 ? entry.getPayload(kindInt) : null;
+                AdvertisingSets.Payload payload = current != null ? current.copy() : new AdvertisingSets.Payload();
+                try {
+                    payload.serviceData.put(UUID.fromString(serviceUuid),
+                            value != null ? Base64Codec.decode(value) : new byte[0]);
+                } catch (RuntimeException e) {
+                    promise.reject("invalid_advertisement", e);
+                    return;
+                }
+                updateAdvertisingSet(id, kind, payload, promise);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void stopAdvertisingSet(final String id, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                AdvertisingSets.Entry<AdvertisingSetCallback, AdvertisingSet, Promise> entry = mAdvSets.remove(id);
+                if (entry != null) {
+                    stopAdvertisingSet(entry);
+                }
+                promise.resolve(null);
+            }
+        });
+    }
+
+    private void updateAdvertisingSet(String id, String kind, AdvertisingSets.Payload payload, Promise promise) {
+        AdvertisingSets.Entry<AdvertisingSetCallback, AdvertisingSet, Promise> entry = mAdvSets.get(id);
+        int kindInt = parsePayloadKind(kind);
+        if (kindInt == -1) {
+            promise.reject("invalid_advertisement");
+        } else if (entry == null) {
+            promise.reject("advertising_set_not_found");
+        } else if (entry.set == null) {
+            promise.reject("advertising_set_not_started");
+        } else if (entry.update(kindInt, payload, promise)) {
+            sendAdvertisingSetData(entry, kindInt);
+        }
+    }
+
+    private static void sendAdvertisingSetData(AdvertisingSets.Entry<AdvertisingSetCallback, AdvertisingSet,
+            Promise> entry, int kind) {
+        AdvertiseData data = buildAdvertiseData(entry.getPayload(kind));
+        switch (kind) {
+            case AdvertisingSets.DATA:
+                entry.set.setAdvertisingData(data);
+                break;
+            case AdvertisingSets.SCAN_RESPONSE:
+                entry.set.setScanResponseData(data);
+                break;
+            case AdvertisingSets.PERIODIC_DATA:
+                entry.set.setPeriodicAdvertisingData(data);
+                break;
+        }
+    }
+
+    private void stopAdvertisingSet(AdvertisingSets.Entry<AdvertisingSetCallback, AdvertisingSet, Promise> entry) {
+        BluetoothLeAdvertiser advertiser = mBluetoothAdapter.getBluetoothLeAdvertiser();
+        if (advertiser != null) {
+            advertiser.stopAdvertisingSet(entry.callback);
+        }
+        for (Promise pending : entry.drain()) {
+            pending.reject("advertising_set_stopped");
+        }
+    }
+
+    private void stopAdvertisingSets() {
+        for (AdvertisingSets.Entry<AdvertisingSetCallback, AdvertisingSet, Promise> entry : mAdvSets.getAll()) {
+            mAdvSets.remove(entry.id);
+            stopAdvertisingSet(entry);
+        }
+    }
+
+    private static int parsePayloadKind(String kind) {
+        if ("data".equals(kind)) {
+            return AdvertisingSets.DATA;
+        }
+        if ("scanResponse".equals(kind)) {
+            return AdvertisingSets.SCAN_RESPONSE;
+        }
+        if ("periodicData".equals(kind)) {
+            return AdvertisingSets.PERIODIC_DATA;
+        }
+        return -1;
+    }
+
+    /**
+     * Throws when an option is out of range or the combination isn't allowed.
+     */
+    private static AdvertisingSetParameters buildAdvertisingSetParameters(ReadableMap options, boolean legacy,
+                                                                          boolean scannable) {
+        int interval;
+        if (options.hasKey("interval") && !options.isNull("interval")) {
+            // in units of 0.625 ms
+            interval = (int) Math.round(options.getDouble("interval") / 0.625);
+        } else {
+            String profile = options.hasKey("profile") ? options.getString("profile") : null;
+            switch (AdvertisingScheduler.parseProfile(profile)) {
+                case AdvertisingScheduler.PROFILE_LOW_LATENCY:
+                    interval = AdvertisingSetParameters.INTERVAL_LOW;
+                    break;
+                case AdvertisingScheduler.PROFILE_LOW_POWER:
+                    interval = AdvertisingSetParameters.INTERVAL_HIGH;
+                    break;
+                default:
+                    interval = AdvertisingSetParameters.INTERVAL_MEDIUM;
+            }
+        }
+        AdvertisingSetParameters.Builder builder = new AdvertisingSetParameters.Builder()
+                .setLegacyMode(legacy)
+                .setConnectable(getBoolean(options, "connectable"))
+                .setScannable(scannable)
+                .setInterval(interval)
+                .setTxPowerLevel(options.hasKey("txPowerLevel") ? options.getInt("txPowerLevel")
+                        : AdvertisingSetParameters.TX_POWER_MEDIUM);
+        if (!legacy) {
+            builder.setPrimaryPhy(parseAdvertisingPhy(options, "primaryPhy"))
+                    .setSecondaryPhy(parseAdvertisingPhy(options, "secondaryPhy"))
+                    .setIncludeTxPower(getBoolean(options, "includeTxPower"));
+        }
+        return builder.build();
+    }
+
+    private static PeriodicAdvertisingParameters buildPeriodicAdvertisingParameters(ReadableMap periodic) {
+        // in units of 1.25 ms
+        int interval = periodic.hasKey("interval") ? (int) Math.round(periodic.getDouble("interval") / 1.25)
+                : DEFAULT_PERIODIC_INTERVAL;
+        return new PeriodicAdvertisingParameters.Builder()
+                .setInterval(interval)
+                .setIncludeTxPower(getBoolean(periodic, "includeTxPower"))
+                .build();
+    }
+
+    private static int parseAdvertisingPhy(ReadableMap options, String key) {
+        if (!options.hasKey(key) || options.isNull(key)) {
+            return Phy.LE_1M;
+        }
+        int phy = Phy.getPhy(options.getString(key));
+        if (phy == 0) {
+            throw new IllegalArgumentException("Unknown PHY " + options.getString(key));
+        }
+        return phy;
+    }
+
+    /**
+     * Parses {serviceUuids, serviceData, manufacturerData, includeDeviceName, includeTxPower}, or
+     * returns null for null. Service and manufacturer data are Base64, keyed by service UUID and by
+     * company identifier.
+     */
+    private static AdvertisingSets.Payload parsePayload(ReadableMap map) {
+        if (map == null) {
+            return null;
+        }
+        AdvertisingSets.Payload payload = new AdvertisingSets.Payload();
+        payload.includeDeviceName = getBoolean(map, "includeDeviceName");
+        payload.includeTxPower = getBoolean(map, "includeTxPower");
+        ReadableArray serviceUuids = map.hasKey("serviceUuids") ? map.getArray("serviceUuids") : null;
+        if (serviceUuids != null) {
+            for (int i = 0; i < serviceUuids.size(); i++) {
+                payload.serviceUuids.add(UUID.fromString(serviceUuids.getString(i)));
+            }
+        }
+        ReadableMap serviceData = getMap(map, "serviceData");
+        if (serviceData != null) {
+            ReadableMapKeySetIterator iterator = serviceData.keySetIterator();
+            while (iterator.hasNextKey()) {
+                String key = iterator.nextKey();
+                payload.serviceData.put(UUID.fromString(key), Base64Codec.decode(serviceData.getString(key)));
+            }
+        }
+        ReadableMap manufacturerData = getMap(map, "manufacturerData");
+        if (manufacturerData != null) {
+            ReadableMapKeySetIterator iterator = manufacturerData.keySetIterator();
+            while (iterator.hasNextKey()) {
+                String key = iterator.nextKey();
+                payload.manufacturerData.put(Integer.parseInt(key),
+                        Base64Codec.decode(manufacturerData.getString(key)));
+            }
+        }
+        return payload;
+    }
+
+    private static AdvertiseData buildAdvertiseData(AdvertisingSets.Payload payload) {
+        if (payload == null) {
+            return null;
+        }
+        AdvertiseData.Builder builder = new AdvertiseData.Builder()
+                .setIncludeDeviceName(payload.includeDeviceName)
+                .setIncludeTxPowerLevel(payload.includeTxPower);
+        for (UUID uuid : payload.serviceUuids) {
+            builder.addServiceUuid(new ParcelUuid(uuid));
+        }
+        for (Map.Entry<UUID, byte[]> entry : payload.serviceData.entrySet()) {
+            builder.addServiceData(new ParcelUuid(entry.getKey()), entry.getValue());
+        }
+        for (Map.Entry<Integer, byte[]> entry : payload.manufacturerData.entrySet()) {
+            builder.addManufacturerData(entry.getKey(), entry.getValue());
+        }
+        return builder.build();
+    }
+
+    private static ReadableMap getMap(ReadableMap map, String key) {
+        return map != null && map.hasKey(key) && !map.isNull(key) ? map.getMap(key) : null;
+    }
+
+    @ReactMethod
+    public void removeService(final ReadableMap map, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                Log.i(TAG, "removeService" + map);
+                if (map != null) {
+                    UUID serviceUuid = UUID.fromString(map.getString("uuid"));
+                    if (serviceUuid != null) {
+                        BluetoothGattService service = mServicesMap.get(serviceUuid.toString());
+                        if (service != null && mGattServer != null) {
+                            mGattServer.removeService(service);
+                        }
+                        forgetService(serviceUuid);
+                        promise.resolve(null);
+                    } else {
+                        promise.reject("invalid_service");
+                    }
+                } else {
+                    promise.reject("invalid_service");
+
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns every defined service, included services before the services including them.
+     */
+    private ArrayList<BluetoothGattService> getServicesInAddOrder() {
+        ArrayList<BluetoothGattService> services = new ArrayList<>();
+        for (BluetoothGattService service : mServicesMap.values()) {
+            addInOrder(service, services);
+        }
+        return services;
+    }
+
+    private static void addInOrder(BluetoothGattService service, List<BluetoothGattService> services) {
+        if (services.contains(service)) {
+            return;
+        }
+        for (BluetoothGattService included : service.getIncludedServices()) {
+            addInOrder(included, services);
+        }
+        services.add(service);
+    }
+
+    /**
+     * Drops the service, its included services and everything kept for their characteristics.
+     */
+    private void forgetService(UUID serviceUuid) {
+        mRestoredServices.remove(serviceUuid);
+        BluetoothGattService service = mServicesMap.remove(serviceUuid.toString());
+        if (service == null) {
+            return;
+        }
+        for (BluetoothGattService included : service.getIncludedServices()) {
+            forgetService(included.getUuid());
+        }
+        for (int handle : mAttributes.unregisterService(serviceUuid)) {
+            mDispatcher.forget(handle);
+        }
+    }
+
+    @ReactMethod
+    public void removeAllServices(final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                Log.i(TAG, "removeAllService");
+                mServicePipeline.clear();
+                if (mGattServer != null) {
+                    mGattServer.clearServices();
+                }
+                mServicesMap.clear();
+                mRestoredServices.clear();
+                mDispatcher.clearAttributes();
+                // the file stays, a later restoreServices builds its services again
+                promise.resolve(null);
+            }
+        });
+    }
+
+    /**
+     * Stops the advertiser only. The GATT server stays open with its services and connections.
+     */
+    @ReactMethod
+    public void pauseAdvertising(final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                Log.i(TAG, "Pause advertising");
+                mAdvScheduler.setPaused(true);
+                updateAdvertising();
+                promise.resolve(null);
+            }
+        });
+    }
+
+    /**
+     * Restarts the advertiser stopped by pauseAdvertising, with the data and profile it was started
+     * with. Does nothing unless startAdvertising succeeded before.
+     */
+    @ReactMethod
+    public void resumeAdvertising(final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                Log.i(TAG, "Resume advertising");
+                int previousProfile = mAdvProfile;
+                mAdvScheduler.setPaused(false);
+                mAdvScheduler.onStart(System.nanoTime());
+                updateAdvertising();
+                if (previousProfile == AdvertisingScheduler.PROFILE_PAUSED
+                        && mAdvProfile != AdvertisingScheduler.PROFILE_PAUSED && mAdvPromise == null) {
+                    // settled by the advertise callback
+                    mAdvPromise = promise;
+                } else {
+                    promise.resolve(null);
+                }
+            }
+        });
+    }
+
+    @ReactMethod
+    public void stopAdvertising(final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                Log.i(TAG, "Stop advertising");
+                closeServer();
+                promise.resolve(null);
+            }
+        });
+    }
+
+    /**
+     * Queues the task of a React method. A task throwing rejects its promise rather than ending the
+     * event loop, and every callback with it; once the loop quit, the promise is rejected right away.
+     */
+    private void postTask(final Promise promise, final Runnable task) {
+        boolean posted = mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Task failed", e);
+                    promise.reject("internal_error", e);
+                }
+            }
+        });
+        if (!posted) {
+            promise.reject("module_destroyed");
+        }
+    }
+
+    /**
+     * Queues a GATT server callback. Callbacks still queued when the server is closed are dropped.
+     */
+    private void postGattCallback(final Runnable callback) {
+        mEventLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mGattServer == null) {
+                    return;
+                }
+                try {
+                    callback.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "GATT callback failed", e);
+                }
+            }
+        });
+    }
+
+    private void closeServer() {
+        if (mAdvPromise != null) {
+            mAdvPromise = null;
+        }
+        if (mGattServer != null) {
+            mGattServer.clearServices();
+            mGattServer.close();
+            mGattServer = null;
+        }
+        mServicePipeline.clear();
+        mDispatcher.close();
+        if (mBluetoothAdapter.isEnabled() && mAdvertiser != null) {
+            // If stopAdvertising() gets called before close() a null
+            // pointer exception is raised.
+            mAdvertiser.stopAdvertising(mAdvCallback);
+            mIsAdvertising=false;
+        }
+        mEventLoop.removeCallbacks(mAdvertisingUpdate);
+        // the requests among them were just answered natively
+        mEventLoop.removeCallbacks(mFlushEvents);
+        mEventBatch.clear();
+        mAdvProfile = AdvertisingScheduler.PROFILE_PAUSED;
+        mAdvScheduler.setPaused(false);
+        mAdvScheduler.setConnectionCount(0, System.nanoTime());
+    }
+
+    @ReactMethod
+    public void respond(final String requestId, final String status, final String value, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                if (respondToRequest(requestId, status, value != null ? Base64Codec.decode(value) : null)) {
+                    promise.resolve(null);
+                } else {
+                    promise.reject("invalid_request");
+                }
+            }
+        });
+    }
+
+    /**
+     * Responds with a value packed from the fields with the characteristic's schema.
+     */
+    @ReactMethod
+    public void respondFields(final String requestId, final int handle, final String status, final ReadableMap fields,
+                              final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                ValueSchema schema = mDispatcher.getSchema(handle);
+                if (schema == null) {
+                    promise.reject("schema_not_found");
+                    return;
+                }
+                byte[] value;
+                try {
+                    value = schema.pack(new ReadableFields(fields));
+                } catch (RuntimeException e) {
+                    promise.reject("invalid_value", e);
+                    return;
+                }
+                if (respondToRequest(requestId, status, value)) {
+                    promise.resolve(null);
+                } else {
+                    promise.reject("invalid_request");
+                }
+            }
+        });
+    }
+
+    /**
+     * Synchronous variant of respond, called directly on the JS thread without a promise. Blocks
+     * until the event loop has handed the response to the stack. Returns false when the request
+     * does not exist.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public boolean respondSync(final String requestId, final String status, final String value) {
+        return runOnEventLoop(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return respondToRequest(requestId, status, value != null ? Base64Codec.decode(value) : null);
+            }
+        });
+    }
+
+    /**
+     * Synchronous variant of respondFields. Returns false when the request does not exist, or the
+     * fields can't be packed.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public boolean respondFieldsSync(final String requestId, final int handle, final String status,
+                                     final ReadableMap fields) {
+        return runOnEventLoop(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                ValueSchema schema = mDispatcher.getSchema(handle);
+                if (schema == null) {
+                    return false;
+                }
+                byte[] value;
+                try {
+                    value = schema.pack(new ReadableFields(fields));
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Can't pack the response to " + requestId, e);
+                    return false;
+                }
+                return respondToRequest(requestId, status, value);
+            }
+        });
+    }
+
+    private boolean respondToRequest(String requestId, String status, byte[] value) {
+        if (mVerboseLogging) {
+            Log.i(TAG, "responding" + requestId + "status" + status);
+        }
+        return mDispatcher.respond(requestId, status, value);
+    }
+
+    /**
+     * Sets how long JS has to respond to a request, in milliseconds, before it's answered natively with an error.
+     */
+    @ReactMethod
+    public void setRequestTimeout(final double timeout, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                mDispatcher.setRequestTimeout((long) (timeout * 1000000));
+                promise.resolve(null);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void getPendingRequestCount(final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                promise.resolve(mDispatcher.getPendingRequestCount());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void notify(final String characteristicUuid, final String value, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                sendNotification(mAttributes.findHandle(UUID.fromString(characteristicUuid)),
+                        Base64Codec.decode(value), promise);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void notifyHandle(final int handle, final String value, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                sendNotification(handle, Base64Codec.decode(value), promise);
+            }
+        });
+    }
+
+    /**
+     * Notifies subscribers, like notifyHandle, with a value packed from the fields with the
+     * characteristic's schema.
+     */
+    @ReactMethod
+    public void notifyFields(final int handle, final ReadableMap fields, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                ValueSchema schema = mDispatcher.getSchema(handle);
+                if (schema == null) {
+                    promise.reject("schema_not_found");
+                    return;
+                }
+                byte[] value;
+                try {
+                    value = schema.pack(new ReadableFields(fields));
+                } catch (RuntimeException e) {
+                    promise.reject("invalid_value", e);
+                    return;
+                }
+                sendNotification(handle, value, promise);
+            }
+        });
+    }
+
+    private void sendNotification(int handle, byte[] value, final Promise promise) {
+        String error = queueNotification(handle, value, new NotificationQueue.Completion() {
+            @Override
+            protected void onComplete(int sent, int failed) {
+                if (failed == 0) {
+                    promise.resolve(null);
+                } else {
+                    promise.reject("notification_failed", failed + " of " + (sent + failed) + " notifications were not sent");
+                }
+            }
+
+            @Override
+            protected void onDropped() {
+                promise.reject("notification_dropped", "The characteristic was removed before the value was sent");
+            }
+        });
+        if (error != null) {
+            promise.reject(error);
+        }
+    }
+
+    /**
+     * Synchronous variant of notifyHandle, called directly on the JS thread. Returns whether the
+     * notification was queued; it is sent in the background without reporting back.
+     */
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public boolean notifySync(final int handle, final String value) {
+        return runOnEventLoop(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return queueNotification(handle, Base64Codec.decode(value), new NotificationQueue.Completion() {
+                    @Override
+                    protected void onComplete(int sent, int failed) {
+                        if (failed > 0) {
+                            Log.w(TAG, failed + " of " + (sent + failed) + " notifications were not sent");
+                        }
+                    }
+                }) == null;
+            }
+        });
+    }
+
+    /**
+     * Sends the contents of a file to every subscribed device, as consecutive notifications of at
+     * most MTU - 3 bytes. The file is memory-mapped and frames are read from it only as the
+     * notification window opens. Emits NOTIFY_STREAM_PROGRESS whenever another percent of the
+     * frames was sent and resolves once all of them were.
+     */
+    @ReactMethod
+    public void notifyStream(final int handle, final String path, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                if (mGattServer == null) {
+                    promise.reject("service_not_found");
+                    return;
+                }
+                if (path == null) {
+                    promise.reject("invalid_path");
+                    return;
+                }
+                ByteBuffer source;
+                try {
+                    source = mapFile(new File(path.startsWith("file://") ? path.substring(7) : path));
+                } catch (IOException e) {
+                    promise.reject("stream_failed", e);
+                    return;
+                }
+                String error = mDispatcher.notifyStream(handle, source, new NotificationQueue.Completion() {
+                    private int mPercent;
+
+                    @Override
+                    protected void onProgress(int done, int total) {
+                        int percent = (int) (done * 100L / total);
+                        if (percent > mPercent && done < total) {
+                            mPercent = percent;
+                            WritableMap params = Arguments.createMap();
+                            putAttribute(params, handle, null);
+                            params.putString("path", path);
+                            params.putInt("sent", done);
+                            params.putInt("total", total);
+                            sendEvent(NOTIFY_STREAM_PROGRESS, params);
+                        }
+                    }
+
+                    @Override
+                    protected void onComplete(int sent, int failed) {
+                        if (failed == 0) {
+                            promise.resolve(null);
+                        } else {
+                            promise.reject("notification_failed",
+                                    failed + " of " + (sent + failed) + " notifications were not sent");
+                        }
+                    }
+                });
+                if (error != null) {
+                    promise.reject(error);
+                }
+            }
+        });
+    }
+
+    private static ByteBuffer mapFile(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after the file is closed
+            FileChannel channel = randomAccessFile.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Runs the task on the event loop and waits for its result, for the synchronous React methods.
+     */
+    private <T> T runOnEventLoop(Callable<T> task) {
+        if (Looper.myLooper() == mEventLoop.getLooper()) {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        FutureTask<T> future = new FutureTask<>(task);
+        if (!mEventLoop.post(future)) {
+            throw new IllegalStateException("The module was destroyed");
+        }
+        try {
+            return future.get(SYNC_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new IllegalStateException("The event loop didn't run the task", e);
+        }
+    }
+
+    /**
+     * Queues the notification for every connected device. Returns an error code when it could not be queued.
+     */
+    private String queueNotification(int handle, byte[] value, NotificationQueue.Completion completion) {
+        if (mGattServer == null) {
+            return "service_not_found";
+        }
+        if (mAttributes.get(handle) == null) {
+            return "characteristic_not_found";
+        }
+        return mDispatcher.notify(handle, value, completion);
+    }
+
+    @ReactMethod
+    public void setNotificationWindow(final int window, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                mDispatcher.setNotificationWindow(window);
+                promise.resolve(null);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void setCharacteristicValue(final int handle, final String value, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                if (mAttributes.get(handle) == null) {
+                    promise.reject("characteristic_not_found");
+                    return;
+                }
+                if (value == null) {
+                    promise.reject("invalid_value");
+                    return;
+                }
+                mReadCache.put(handle, Base64Codec.decode(value));
+                promise.resolve(null);
+            }
+        });
+    }
+
+    /**
+     * Sets how notify calls on the characteristic are conflated, deduplicated and rate limited.
+     * Without any of conflate, dedupe and maxHz, every call is sent.
+     */
+    @ReactMethod
+    public void setNotifyPolicy(final int handle, final ReadableMap policy, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                if (mAttributes.get(handle) == null) {
+                    promise.reject("characteristic_not_found");
+                    return;
+                }
+                mDispatcher.setNotifyPolicy(handle, getBoolean(policy, "conflate"), getBoolean(policy, "dedupe"),
+                        policy != null && policy.hasKey("maxHz") ? policy.getDouble("maxHz") : 0);
+                promise.resolve(null);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void setCacheMode(final int handle, final String mode, final double ttl, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                if (mAttributes.get(handle) == null) {
+                    promise.reject("characteristic_not_found");
+                    return;
+                }
+                mReadCache.setMode(handle, ReadValueCache.parseMode(mode), (long) ttl);
+                promise.resolve(null);
+            }
+        });
+    }
+
+    /**
+     * Stores everything centrals write to the characteristic in a file instead of sending it to JS,
+     * until the expected length was written or stopWriteSink is called. JS only gets
+     * WRITE_SINK_PROGRESS events every progressInterval bytes and a WRITE_SINK_COMPLETE event.
+     */
+    @ReactMethod
+    public void startWriteSink(final int handle, final String path, final double expectedLength,
+                               final double progressInterval, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                if (mAttributes.get(handle) == null) {
+                    promise.reject("characteristic_not_found");
+                    return;
+                }
+                if (path == null) {
+                    promise.reject("invalid_path");
+                    return;
+                }
+                try {
+                    File file = new File(path.startsWith("file://") ? path.substring(7) : path);
+                    mDispatcher.startWriteSink(handle,
+                            new WriteSink(file, (long) expectedLength, (long) progressInterval));
+                    promise.resolve(null);
+                } catch (IOException e) {
+                    promise.reject("sink_failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the characteristic's sink and resolves with the file path and the number of bytes written.
+     */
+    @ReactMethod
+    public void stopWriteSink(final int handle, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                WriteSink sink = mDispatcher.removeWriteSink(handle);
+                if (sink == null) {
+                    promise.reject("sink_not_found");
+                    return;
+                }
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    promise.reject("sink_failed", e);
+                    return;
+                }
+                WritableMap result = Arguments.createMap();
+                result.putString("path", sink.getPath());
+                result.putDouble("bytesWritten", sink.getBytesWritten());
+                promise.resolve(result);
+            }
+        });
+    }
+
+    /**
+     * Records all GATT traffic to a rotating binary log, in place of any recording in progress, for
+     * replaying it offline with the benchmark's TrafficReplay. Resolves with the path of the log.
+     */
+    @ReactMethod
+    public void startRecording(final ReadableMap options, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                if (options == null) {
+                    promise.reject("invalid_options");
+                    return;
+                }
+                String path = options.hasKey("path") && !options.isNull("path") ? options.getString("path") : null;
+                File file = path != null ? new File(path.startsWith("file://") ? path.substring(7) : path)
+                        : new File(mReactContext.getFilesDir(), "rn-ble-peripheral-traffic.log");
+                int maxFileSize = options.hasKey("maxFileSize") ? options.getInt("maxFileSize")
+                        : TrafficRecorder.DEFAULT_MAX_FILE_SIZE;
+                int maxFiles = options.hasKey("maxFiles") ? options.getInt("maxFiles")
+                        : TrafficRecorder.DEFAULT_MAX_FILES;
+                stopRecorder();
+                try {
+                    TrafficRecorder recorder = new TrafficRecorder(file, maxFileSize, maxFiles);
+                    mDispatcher.setRecorder(recorder);
+                    promise.resolve(recorder.getPath());
+                } catch (IOException e) {
+                    promise.reject("recording_failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops recording and resolves with the path of the log and the number of records written and
+     * dropped, or with null when nothing was being recorded.
+     */
+    @ReactMethod
+    public void stopRecording(final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                TrafficRecorder recorder = stopRecorder();
+                if (recorder == null) {
+                    promise.resolve(null);
+                    return;
+                }
+                WritableMap result = Arguments.createMap();
+                result.putString("path", recorder.getPath());
+                result.putDouble("records", recorder.getRecordCount());
+                result.putDouble("dropped", recorder.getDroppedCount());
+                promise.resolve(result);
+            }
+        });
+    }
+
+    private TrafficRecorder stopRecorder() {
+        TrafficRecorder recorder = mDispatcher.getRecorder();
+        if (recorder == null) {
+            return null;
+        }
+        mDispatcher.setRecorder(null);
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't close the traffic log", e);
+        }
+        return recorder;
+    }
+
+    /**
+     * Resolves with the counters of every characteristic that saw traffic, and their totals.
+     * Latencies are in milliseconds, from the request arriving to its response being handed to the stack.
+     */
+    @ReactMethod
+    public void getStats(final boolean reset, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                GattStats.Counters[] snapshot = mStats.snapshot();
+                if (reset) {
+                    mStats.clear();
+                }
+                GattStats.Counters total = new GattStats.Counters();
+                WritableArray characteristics = Arguments.createArray();
+                for (int handle = 0; handle < snapshot.length; handle++) {
+                    if (snapshot[handle] == null) {
+                        continue;
+                    }
+                    total.add(snapshot[handle]);
+                    WritableMap counters = toMap(snapshot[handle]);
+                    putAttribute(counters, handle, null);
+                    characteristics.pushMap(counters);
+                }
+                WritableMap stats = toMap(total);
+                stats.putArray("characteristics", characteristics);
+                promise.resolve(stats);
+            }
+        });
+    }
+
+    /**
+     * Sends READ_REQUEST, WRITE_REQUEST, SUBSCRIBED, UNSUBSCRIBED, MTU_CHANGED and PHY_CHANGED events
+     * to JS as EVENT_BATCH arrays, so that bursts of requests cross the bridge once. Other events flush the
+     * batch first, to keep the order.
+     */
+    @ReactMethod
+    public void setEventBatching(final ReadableMap options, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                if (options == null) {
+                    promise.reject("invalid_options");
+                    return;
+                }
+                boolean enabled = !options.hasKey("enabled") || options.getBoolean("enabled");
+                int maxEvents = options.hasKey("maxEvents") ? options.getInt("maxEvents")
+                        : EventBatch.DEFAULT_MAX_EVENTS;
+                long maxDelay = options.hasKey("maxDelay") ? (long) options.getDouble("maxDelay")
+                        : EventBatch.DEFAULT_MAX_DELAY;
+                mEventBatch.configure(enabled, maxEvents, maxDelay);
+                if (!enabled) {
+                    mEventLoop.removeCallbacks(mFlushEvents);
+                }
+                promise.resolve(null);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void setVerboseLogging(boolean enabled) {
+        mVerboseLogging = enabled;
+    }
+
+    private static WritableMap toMap(GattStats.Counters counters) {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("requests", counters.requests);
+        map.putDouble("cacheHits", counters.cacheHits);
+        map.putDouble("timeouts", counters.timeouts);
+        map.putDouble("notificationsSent", counters.notificationsSent);
+        map.putDouble("notificationsDropped", counters.notificationsDropped);
+        map.putDouble("notificationsSkipped", counters.notificationsSkipped);
+        map.putDouble("bytesIn", counters.bytesIn);
+        map.putDouble("bytesOut", counters.bytesOut);
+        WritableMap latency = Arguments.createMap();
+        latency.putDouble("count", counters.latency.count);
+        latency.putDouble("mean", counters.latency.getMean());
+        latency.putDouble("p50", counters.latency.percentile(50));
+        latency.putDouble("p90", counters.latency.percentile(90));
+        latency.putDouble("p99", counters.latency.percentile(99));
+        latency.putDouble("max", counters.latency.getMax());
+        map.putMap("latency", latency);
+        return map;
+    }
+
+    /**
+     * Asks the stack for the preferred PHY, for one central or, without centralUuid, for every
+     * connected central and the ones connecting later. The PHYs actually used are reported as
+     * PHY_CHANGED once the central agreed.
+     */
+    @ReactMethod
+    public void setPreferredPhy(final ReadableMap options, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                if (options == null) {
+                    promise.reject("invalid_options");
+                    return;
+                }
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+                    promise.reject("not_supported");
+                    return;
+                }
+                String phy = options.hasKey("phy") && !options.isNull("phy") ? options.getString("phy") : null;
+                int mask = Phy.getMask(phy);
+                if (phy != null && mask == 0) {
+                    promise.reject("invalid_phy");
+                    return;
+                }
+                int option = Phy.getOption(phy);
+                if (options.hasKey("centralUuid") && !options.isNull("centralUuid")) {
+                    GattDispatcher.Connection<BluetoothDevice> connection =
+                            mDispatcher.getConnection(options.getString("centralUuid"));
+                    if (connection == null) {
+                        promise.reject("device_not_connected");
+                        return;
+                    }
+                    if (mask != 0 && mGattServer != null) {
+                        mGattServer.setPreferredPhy(connection.device, mask, mask, option);
+                    }
+                } else {
+                    mPreferredPhyMask = mask;
+                    mPreferredPhyOption = option;
+                    for (GattDispatcher.Connection<BluetoothDevice> connection : mDispatcher.getConnections()) {
+                        requestPhy(connection.device);
+                    }
+                }
+                promise.resolve(null);
+            }
+        });
+    }
+
+    /**
+     * Requests the default preferred PHY, if any, and reads the PHYs in use.
+     */
+    private void requestPhy(BluetoothDevice device) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || mGattServer == null) {
+            return;
+        }
+        if (mPreferredPhyMask != 0) {
+            mGattServer.setPreferredPhy(device, mPreferredPhyMask, mPreferredPhyMask, mPreferredPhyOption);
+        }
+        mGattServer.readPhy(device);
+    }
+
+    @ReactMethod
+    public void getConnectionInfo(final String centralUuid, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                GattDispatcher.Connection<BluetoothDevice> connection = mDispatcher.getConnection(centralUuid);
+                if (connection == null) {
+                    promise.reject("device_not_connected");
+                    return;
+                }
+                promise.resolve(toMap(connection));
+            }
+        });
+    }
+
+    private static WritableMap toMap(GattDispatcher.Connection<BluetoothDevice> connection) {
+        WritableMap map = Arguments.createMap();
+        map.putString("centralUuid", connection.device.getAddress());
+        map.putInt("mtu", connection.mtu);
+        map.putString("txPhy", Phy.getName(connection.txPhy));
+        map.putString("rxPhy", Phy.getName(connection.rxPhy));
+        return map;
+    }
+
+    @ReactMethod
+    public void getMtu(final String centralUuid, final Promise promise) {
+        postTask(promise, new Runnable() {
+            @Override
+            public void run() {
+                GattDispatcher.Connection<BluetoothDevice> connection = mDispatcher.getConnection(centralUuid);
+                if (connection == null) {
+                    promise.reject("device_not_connected");
+                    return;
+                }
+                promise.resolve(connection.mtu);
+            }
+        });
+    }
+
+    private void sendSubscriptionEvent(String eventName, BluetoothDevice device, int handle) {
+        WritableMap params = Arguments.createMap();
+        params.putString("centralUuid", device.getAddress());
+        putAttribute(params, handle, mAttributes.get(handle));
+        sendEvent(eventName, params);
+    }
+
+    private void sendWriteRequest(int requestId, int handle, BluetoothGattCharacteristic characteristic, int offset,
+                                  byte[] value, boolean responseNeeded) {
+        WritableMap params = Arguments.createMap();
+        GattEvents.putWriteRequest(new EventParams(params), requestId, responseNeeded, offset, value);
+        putAttribute(params, handle, characteristic);
+        ValueSchema schema = mDispatcher.getSchema(handle);
+        if (schema != null) {
+            // left out when the value doesn't match the schema, JS still gets the raw value
+            WritableMap fields = Arguments.createMap();
+            if (schema.unpack(value, new EventParams(fields))) {
+                params.putMap("fields", fields);
+            }
+        }
+        sendEvent(WRITE_REQUEST, params);
+    }
+
+    /**
+     * Identifies the characteristic of an event, using the registry's preformatted UUIDs when it has a handle.
+     */
+    private void putAttribute(WritableMap params, int handle, BluetoothGattCharacteristic characteristic) {
+        if (GattEvents.putAttribute(new EventParams(params), mAttributes, handle)) {
+            return;
+        }
+        if (characteristic == null) {
+            // the characteristic was removed since
+            params.putInt("handle", handle);
+        } else {
+            params.putString("characteristicUuid", characteristic.getUuid().toString());
+            params.putString("serviceUuid", characteristic.getService().getUuid().toString());
+        }
+    }
+
+    /**
+     * Maps the UUID of every characteristic in the service trees to its handle. Unless single, the
+     * handles are grouped by the UUID of the root service.
+     */
+    private WritableMap getHandles(List<BluetoothGattService> services, boolean single) {
+        WritableMap result = Arguments.createMap();
+        for (BluetoothGattService service : services) {
+            WritableMap handles = single ? result : Arguments.createMap();
+            putHandles(handles, service);
+            if (!single) {
+                result.putMap(service.getUuid().toString(), handles);
+            }
+        }
+        return result;
+    }
+
+    private void putHandles(WritableMap handles, BluetoothGattService service) {
+        for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+            int handle = mAttributes.getHandle(characteristic);
+            if (handle != AttributeRegistry.INVALID_HANDLE) {
+                handles.putInt(mAttributes.getCharacteristicUuid(handle), handle);
+            }
+        }
+        for (BluetoothGattService included : service.getIncludedServices()) {
+            putHandles(handles, included);
+        }
+    }
+
+    private void sendEvent(String eventName, WritableMap params) {
+        if (mVerboseLogging) {
+            Log.i(TAG, "sending:" + eventName + " with params:" + params);
+        }
+        if (mEventBatch.isEnabled()) {
+            if (isBatched(eventName)) {
+                mEventBatch.add(eventName, params);
+                return;
+            }
+            mEventBatch.flush();
+        }
+        emit(eventName, params);
+    }
+
+    private static boolean isBatched(String eventName) {
+        return READ_REQUEST.equals(eventName) || WRITE_REQUEST.equals(eventName) || SUBSCRIBED.equals(eventName)
+                || UNSUBSCRIBED.equals(eventName) || MTU_CHANGED.equals(eventName) || PHY_CHANGED.equals(eventName);
+    }
+
+    private void emit(String eventName, Object params) {
+        getReactApplicationContext()
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(eventName, params);
+    }
+
+    @Override
+    public String getName() {
+        return "RNBlePeripheral";
+    }
+
+    /**
+     * Forwards what the dispatcher can't handle natively to JS as events.
+     */
+    private final class DispatcherListener
+            implements GattDispatcher.Listener<BluetoothDevice, BluetoothGattCharacteristic> {
+        @Override
+        public void onReadRequest(int requestId, int handle, BluetoothGattCharacteristic characteristic, int offset) {
+            WritableMap params = Arguments.createMap();
+            GattEvents.putReadRequest(new EventParams(params), requestId, offset);
+            putAttribute(params, handle, characteristic);
+            sendEvent(READ_REQUEST, params);
+        }
+
+        @Override
+        public void onWriteRequest(int requestId, int handle, BluetoothGattCharacteristic characteristic, int offset,
+                                   byte[] value, boolean responseNeeded) {
+            sendWriteRequest(requestId, handle, characteristic, offset, value, responseNeeded);
+        }
+
+        @Override
+        public void onSubscriptionChanged(BluetoothDevice device, int handle, boolean subscribed) {
+            sendSubscriptionEvent(subscribed ? SUBSCRIBED : UNSUBSCRIBED, device, handle);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothDevice device, int mtu) {
+            WritableMap params = Arguments.createMap();
+            params.putString("centralUuid", device.getAddress());
+            params.putInt("mtu", mtu);
+            sendEvent(MTU_CHANGED, params);
+        }
+
+        @Override
+        public void onPhyChanged(BluetoothDevice device, int txPhy, int rxPhy) {
+            WritableMap params = Arguments.createMap();
+            params.putString("centralUuid", device.getAddress());
+            params.putString("txPhy", Phy.getName(txPhy));
+            params.putString("rxPhy", Phy.getName(rxPhy));
+            sendEvent(PHY_CHANGED, params);
+        }
+
+        @Override
+        public void onRequestTimedOut(int requestId) {
+            Log.w(TAG, "Request " + requestId + " timed out");
+        }
+
+        @Override
+        public void onWriteSinkProgress(int handle, WriteSink sink) {
+            WritableMap params = Arguments.createMap();
+            putAttribute(params, handle, null);
+            params.putDouble("bytesWritten", sink.getBytesWritten());
+            params.putDouble("expectedLength", sink.getExpectedLength());
+            sendEvent(WRITE_SINK_PROGRESS, params);
+        }
+
+        @Override
+        public void onWriteSinkClosed(int handle, WriteSink sink, String error) {
+            if (error != null) {
+                Log.w(TAG, "Write sink of " + handle + " closed: " + error);
+            }
+            WritableMap params = Arguments.createMap();
+            putAttribute(params, handle, null);
+            params.putString("path", sink.getPath());
+            params.putDouble("bytesWritten", sink.getBytesWritten());
+            if (error != null) {
+                params.putString("error", error);
+            }
+            sendEvent(WRITE_SINK_COMPLETE, params);
+        }
+
+        @Override
+        public void scheduleTimeoutSweep(long delayNanos) {
+            mEventLoop.postDelayed(mTimeoutSweep, Math.max(1, delayNanos / 1000000));
+        }
+
+        @Override
+        public void scheduleNotificationFlush(long delayNanos) {
+            // rounded up, a flush before the slot would only schedule another one
+            mEventLoop.postDelayed(mNotificationFlush, (delayNanos + 999999) / 1000000);
+        }
+    }
+
+    /**
+     * Lets {@link GattEvents} fill in a React map.
+     */
+    private static final class EventParams implements GattEvents.Params {
+        private final WritableMap mMap;
+
+        EventParams(WritableMap map) {
+            mMap = map;
+        }
+
+        @Override
+        public void putString(String key, String value) {
+            mMap.putString(key, value);
+        }
+
+        @Override
+        public void putInt(String key, int value) {
+            mMap.putInt(key, value);
+        }
+
+        @Override
+        public void putBoolean(String key, boolean value) {
+            mMap.putBoolean(key, value);
+        }
+
+        @Override
+        public void putDouble(String key, double value) {
+            mMap.putDouble(key, value);
+        }
+    }
+
+    /**
+     * Reports the start and the data updates of one advertising set, on the event loop.
+     */
+    private final class AdvertisingSetEvents extends AdvertisingSetCallback {
+        private final String mId;
+
+        AdvertisingSetEvents(String id) {
+            mId = id;
+        }
+
+        @Override
+        public void onAdvertisingSetStarted(AdvertisingSet advertisingSet, int txPower, int status) {
+            AdvertisingSets.Entry<AdvertisingSetCallback, AdvertisingSet, Promise> entry = mAdvSets.get(mId);
+            if (entry == null || entry.callback != this) {
+                // stopped in the meantime
+                return;
+            }
+            if (status != ADVERTISE_SUCCESS) {
+                mAdvSets.remove(mId);
+                for (Promise pending : entry.drain()) {
+                    pending.reject("advertise_failed", "Status " + status);
+                }
+                return;
+            }
+            entry.set = advertisingSet;
+            Promise started = entry.started;
+            entry.started = null;
+            started.resolve(txPower);
+        }
+
+        @Override
+        public void onAdvertisingDataSet(AdvertisingSet advertisingSet, int status) {
+            onDataSet(AdvertisingSets.DATA, status);
+        }
+
+        @Override
+        public void onScanResponseDataSet(AdvertisingSet advertisingSet, int status) {
+            onDataSet(AdvertisingSets.SCAN_RESPONSE, status);
+        }
+
+        @Override
+        public void onPeriodicAdvertisingDataSet(AdvertisingSet advertisingSet, int status) {
+            onDataSet(AdvertisingSets.PERIODIC_DATA, status);
+        }
+
+        private void onDataSet(int kind, int status) {
+            AdvertisingSets.Entry<AdvertisingSetCallback, AdvertisingSet, Promise> entry = mAdvSets.get(mId);
+            if (entry == null || entry.callback != this) {
+                return;
+            }
+            ArrayList<Promise> completed = new ArrayList<>();
+            if (entry.onUpdated(kind, status == ADVERTISE_SUCCESS, completed)) {
+                // the latest of the updates made in the meantime
+                sendAdvertisingSetData(entry, kind);
+            }
+            for (Promise promise : completed) {
+                if (status == ADVERTISE_SUCCESS) {
+                    promise.resolve(null);
+                } else {
+                    promise.reject("advertise_failed", "Status " + status);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets {@link ValueSchema} read the fields JS passed.
+     */
+    private static final class ReadableFields implements ValueSchema.Fields {
+        private final ReadableMap mMap;
+
+        ReadableFields(ReadableMap map) {
+            mMap = map;
+        }
+
+        @Override
+        public boolean has(String name) {
+            return mMap != null && mMap.hasKey(name) && !mMap.isNull(name);
+        }
+
+        @Override
+        public double getNumber(String name) {
+            return mMap.getDouble(name);
+        }
+
+        @Override
+        public String getString(String name) {
+            return mMap.getString(name);
+        }
+    }
 
     public static int getPermission(ReadableArray permissions) {
         if (permissions == null || permissions.size() == 0) {
@@ -540,38 +2633,10 @@ public class RnBlePeripheralModule extends ReactContextBaseJavaModule {
     }
 
     public static int getPermissionValue(String permission) {
-        switch (permission) {
-            case "readable":
-                return BluetoothGattCharacteristic.PERMISSION_READ;
-            case "writeable":
-                return BluetoothGattCharacteristic.PERMISSION_WRITE;
-            case "readEncryptionRequired":
-                return BluetoothGattCharacteristic.PERMISSION_READ_ENCRYPTED;
-            case "writeEncryptionRequired":
-                return BluetoothGattCharacteristic.PERMISSION_WRITE_ENCRYPTED;
-        }
-        return -1;
+        return GattAttributes.getPermissionValue(permission);
     }
 
-    public static int getPropertyValue(String permission) {
-        switch (permission) {
-            case "broadcast":
-                return BluetoothGattCharacteristic.PROPERTY_BROADCAST;
-            case "read":
-                return BluetoothGattCharacteristic.PROPERTY_READ;
-            case "writeWithoutResponse":
-                return BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE;
-            case "write":
-                return BluetoothGattCharacteristic.PROPERTY_WRITE;
-            case "notify":
-                return BluetoothGattCharacteristic.PROPERTY_NOTIFY;
-            case "indicate":
-                return BluetoothGattCharacteristic.PROPERTY_INDICATE;
-            case "authenticatedSignedWrites":
-                return BluetoothGattCharacteristic.PROPERTY_SIGNED_WRITE;
-            case "extendedProperties":
-                return BluetoothGattCharacteristic.PROPERTY_EXTENDED_PROPS;
-        }
-        return -1;
+    public static int getPropertyValue(String property) {
+        return GattAttributes.getPropertyValue(property);
     }
 }
\ No newline at end of file
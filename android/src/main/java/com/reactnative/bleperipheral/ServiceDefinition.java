@@ -0,0 +1,56 @@
+package com.reactnative.peripheral;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A service tree as described by JS, parsed and validated once before anything is built from it.
+ */
+final class ServiceDefinition {
+
+    final UUID uuid;
+    final boolean primary;
+    final List<CharacteristicDefinition> characteristics;
+    final List<ServiceDefinition> includedServices;
+
+    ServiceDefinition(UUID uuid, boolean primary, List<CharacteristicDefinition> characteristics,
+                      List<ServiceDefinition> includedServices) {
+        this.uuid = uuid;
+        this.primary = primary;
+        this.characteristics = Collections.unmodifiableList(new ArrayList<>(characteristics));
+        this.includedServices = Collections.unmodifiableList(new ArrayList<>(includedServices));
+    }
+
+    static final class CharacteristicDefinition {
+        final UUID uuid;
+        final int properties;
+        final int permissions;
+        final int cacheMode;
+        final long cacheTtl;
+        /** Initial value, or null. Never modified. */
+        final byte[] value;
+        final boolean notifyConflate;
+        final boolean notifyDedupe;
+        /** Notifications per second at most, 0 for no limit. */
+        final double notifyMaxHz;
+        /** Layout of the value, or null. */
+        final ValueSchema schema;
+
+        CharacteristicDefinition(UUID uuid, int properties, int permissions, int cacheMode, long cacheTtl,
+                                 byte[] value, boolean notifyConflate, boolean notifyDedupe, double notifyMaxHz,
+                                 ValueSchema schema) {
+            this.uuid = uuid;
+            this.properties = properties;
+            this.permissions = permissions;
+            this.cacheMode = cacheMode;
+            this.cacheTtl = cacheTtl;
+            this.value = value;
+            this.notifyConflate = notifyConflate;
+            this.notifyDedupe = notifyDedupe;
+            this.notifyMaxHz = notifyMaxHz;
+            this.schema = schema;
+        }
+    }
+}
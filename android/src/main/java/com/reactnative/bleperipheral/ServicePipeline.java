@@ -0,0 +1,128 @@
+package com.reactnative.peripheral;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adds services to the GATT server one at a time. The stack only accepts the next service once
+ * it reported the previous one through onServiceAdded, services added back to back are dropped.
+ * Services are submitted in transactions that are either added completely or not at all.
+ *
+ * @param <S> service
+ */
+class ServicePipeline<S> {
+
+    interface Server<S> {
+        /**
+         * Starts adding the service. Returns false when the stack refused it right away.
+         */
+        boolean addService(S service);
+
+        void removeService(S service);
+    }
+
+    /**
+     * Services that have to be added together.
+     */
+    abstract static class Transaction<S> {
+        private final List<S> mServices;
+        private final ArrayList<S> mAdded = new ArrayList<>();
+        private int mNext;
+
+        Transaction(List<S> services) {
+            mServices = new ArrayList<>(services);
+        }
+
+        /**
+         * Called once every service was added, or once one failed and the ones added before it
+         * were removed again.
+         */
+        protected abstract void onComplete(boolean success);
+    }
+
+    private final Server<S> mServer;
+    private final ArrayDeque<Transaction<S>> mTransactions = new ArrayDeque<>();
+    private S mInFlight;
+
+    ServicePipeline(Server<S> server) {
+        mServer = server;
+    }
+
+    void submit(Transaction<S> transaction) {
+        mTransactions.add(transaction);
+        if (mInFlight == null) {
+            next();
+        }
+    }
+
+    /**
+     * Called when the stack reports the service in flight as added.
+     */
+    void onServiceAdded(boolean success) {
+        Transaction<S> transaction = mTransactions.peek();
+        if (mInFlight == null || transaction == null) {
+            return;
+        }
+        if (success) {
+            transaction.mAdded.add(mInFlight);
+        } else {
+            fail(transaction);
+        }
+        mInFlight = null;
+        next();
+    }
+
+    /**
+     * Returns whether the service is being added or waiting to be.
+     */
+    boolean contains(S service) {
+        if (mInFlight == service) {
+            return true;
+        }
+        for (Transaction<S> transaction : mTransactions) {
+            for (int i = transaction.mNext; i < transaction.mServices.size(); i++) {
+                if (transaction.mServices.get(i) == service) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fails every transaction that wasn't completed yet, without touching the server.
+     */
+    void clear() {
+        mInFlight = null;
+        Transaction<S> transaction;
+        while ((transaction = mTransactions.poll()) != null) {
+            transaction.onComplete(false);
+        }
+    }
+
+    private void next() {
+        while (mInFlight == null && !mTransactions.isEmpty()) {
+            Transaction<S> transaction = mTransactions.peek();
+            if (transaction.mNext == transaction.mServices.size()) {
+                mTransactions.poll();
+                transaction.onComplete(true);
+                continue;
+            }
+            S service = transaction.mServices.get(transaction.mNext++);
+            if (mServer.addService(service)) {
+                mInFlight = service;
+            } else {
+                fail(transaction);
+            }
+        }
+    }
+
+    private void fail(Transaction<S> transaction) {
+        for (S added : transaction.mAdded) {
+            mServer.removeService(added);
+        }
+        mTransactions.poll();
+        transaction.onComplete(false);
+    }
+}
@@ -0,0 +1,164 @@
+package com.reactnative.peripheral;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Validated service trees in a compact binary form, stored in app storage so that the next launch
+ * can add them without JS sending and the module parsing them again. Identified by a hash JS
+ * computes over its service definitions; a snapshot with another hash is stale.
+ */
+final class ServiceSnapshot {
+
+    private static final int MAGIC = 0x47415454; // GATT
+    private static final int VERSION = 1;
+
+    final String hash;
+    final List<ServiceDefinition> services;
+
+    ServiceSnapshot(String hash, List<ServiceDefinition> services) {
+        this.hash = hash;
+        this.services = Collections.unmodifiableList(new ArrayList<>(services));
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(hash);
+            out.writeInt(services.size());
+            for (ServiceDefinition service : services) {
+                writeService(out, service);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Throws IOException when the data is truncated, corrupt or from another version.
+     */
+    static ServiceSnapshot decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a service snapshot of version " + VERSION);
+        }
+        String hash = in.readUTF();
+        int count = in.readInt();
+        ArrayList<ServiceDefinition> services = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            services.add(readService(in));
+        }
+        return new ServiceSnapshot(hash, services);
+    }
+
+    private static void writeService(DataOutputStream out, ServiceDefinition service) throws IOException {
+        writeUuid(out, service.uuid);
+        out.writeBoolean(service.primary);
+        out.writeInt(service.characteristics.size());
+        for (ServiceDefinition.CharacteristicDefinition characteristic : service.characteristics) {
+            writeUuid(out, characteristic.uuid);
+            out.writeInt(characteristic.properties);
+            out.writeInt(characteristic.permissions);
+            out.writeInt(characteristic.cacheMode);
+            out.writeLong(characteristic.cacheTtl);
+            writeBytes(out, characteristic.value);
+            out.writeBoolean(characteristic.notifyConflate);
+            out.writeBoolean(characteristic.notifyDedupe);
+            out.writeDouble(characteristic.notifyMaxHz);
+            List<ValueSchema.Field> fields = characteristic.schema != null ? characteristic.schema.getFields() : null;
+            out.writeInt(fields != null ? fields.size() : -1);
+            if (fields != null) {
+                for (ValueSchema.Field field : fields) {
+                    out.writeUTF(field.name);
+                    out.writeByte(field.type);
+                    out.writeBoolean(field.isBigEndian());
+                }
+            }
+        }
+        out.writeInt(service.includedServices.size());
+        for (ServiceDefinition included : service.includedServices) {
+            writeService(out, included);
+        }
+    }
+
+    private static ServiceDefinition readService(DataInputStream in) throws IOException {
+        UUID uuid = readUuid(in);
+        boolean primary = in.readBoolean();
+        int characteristicCount = in.readInt();
+        ArrayList<ServiceDefinition.CharacteristicDefinition> characteristics = new ArrayList<>();
+        for (int i = 0; i < characteristicCount; i++) {
+            UUID characteristicUuid = readUuid(in);
+            int properties = in.readInt();
+            int permissions = in.readInt();
+            int cacheMode = in.readInt();
+            long cacheTtl = in.readLong();
+            byte[] value = readBytes(in);
+            boolean notifyConflate = in.readBoolean();
+            boolean notifyDedupe = in.readBoolean();
+            double notifyMaxHz = in.readDouble();
+            int fieldCount = in.readInt();
+            ValueSchema schema = null;
+            if (fieldCount >= 0) {
+                ArrayList<ValueSchema.Field> fields = new ArrayList<>();
+                for (int j = 0; j < fieldCount; j++) {
+                    fields.add(new ValueSchema.Field(in.readUTF(), in.readByte(), in.readBoolean()));
+                }
+                try {
+                    schema = new ValueSchema(fields);
+                } catch (RuntimeException e) {
+                    throw new IOException(e);
+                }
+            }
+            characteristics.add(new ServiceDefinition.CharacteristicDefinition(characteristicUuid, properties,
+                    permissions, cacheMode, cacheTtl, value, notifyConflate, notifyDedupe, notifyMaxHz, schema));
+        }
+        int includedCount = in.readInt();
+        ArrayList<ServiceDefinition> includedServices = new ArrayList<>();
+        for (int i = 0; i < includedCount; i++) {
+            includedServices.add(readService(in));
+        }
+        return new ServiceDefinition(uuid, primary, characteristics, includedServices);
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes != null ? bytes.length : -1);
+        if (bytes != null) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("Value runs past the end of the snapshot");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
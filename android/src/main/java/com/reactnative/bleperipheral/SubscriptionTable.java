@@ -0,0 +1,109 @@
+package com.reactnative.peripheral;
+
+import java.util.ArrayList;
+
+/**
+ * Client characteristic configuration of every connected device, per attribute handle. Each
+ * central has its own CCCD value, so one central subscribing doesn't affect another.
+ */
+class SubscriptionTable {
+
+    static final int NONE = 0;
+    static final int NOTIFY = 1;
+    static final int INDICATE = 2;
+
+    private final ArrayList<ArrayList<Subscriber>> mSubscribers = new ArrayList<>();
+
+    /**
+     * Stores the device's configuration for the handle and returns the previous one.
+     */
+    int set(String deviceAddress, int handle, int value) {
+        while (mSubscribers.size() <= handle) {
+            mSubscribers.add(null);
+        }
+        ArrayList<Subscriber> subscribers = mSubscribers.get(handle);
+        if (subscribers == null) {
+            subscribers = new ArrayList<>();
+            mSubscribers.set(handle, subscribers);
+        }
+        for (int i = 0; i < subscribers.size(); i++) {
+            Subscriber subscriber = subscribers.get(i);
+            if (subscriber.deviceAddress.equals(deviceAddress)) {
+                int previous = subscriber.value;
+                if (value == NONE) {
+                    subscribers.remove(i);
+                } else {
+                    subscriber.value = value;
+                }
+                return previous;
+            }
+        }
+        if (value != NONE) {
+            subscribers.add(new Subscriber(deviceAddress, value));
+        }
+        return NONE;
+    }
+
+    int get(String deviceAddress, int handle) {
+        ArrayList<Subscriber> subscribers = getSubscribers(handle);
+        if (subscribers != null) {
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.deviceAddress.equals(deviceAddress)) {
+                    return subscriber.value;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the addresses of the devices subscribed to the handle.
+     */
+    ArrayList<String> getDeviceAddresses(int handle) {
+        ArrayList<Subscriber> subscribers = getSubscribers(handle);
+        ArrayList<String> addresses = new ArrayList<>(subscribers != null ? subscribers.size() : 0);
+        if (subscribers != null) {
+            for (Subscriber subscriber : subscribers) {
+                addresses.add(subscriber.deviceAddress);
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Drops every subscription of a device and returns the handles it was subscribed to.
+     */
+    ArrayList<Integer> removeDevice(String deviceAddress) {
+        ArrayList<Integer> handles = new ArrayList<>();
+        for (int handle = 0; handle < mSubscribers.size(); handle++) {
+            if (mSubscribers.get(handle) != null && set(deviceAddress, handle, NONE) != NONE) {
+                handles.add(handle);
+            }
+        }
+        return handles;
+    }
+
+    void removeHandle(int handle) {
+        if (handle >= 0 && handle < mSubscribers.size()) {
+            mSubscribers.set(handle, null);
+        }
+    }
+
+    void clear() {
+        mSubscribers.clear();
+    }
+
+    private ArrayList<Subscriber> getSubscribers(int handle) {
+        return handle >= 0 && handle < mSubscribers.size() ? mSubscribers.get(handle) : null;
+    }
+
+    private static class Subscriber {
+        final String deviceAddress;
+        int value;
+
+        Subscriber(String deviceAddress, int value) {
+            this.deviceAddress = deviceAddress;
+            this.value = value;
+        }
+    }
+}
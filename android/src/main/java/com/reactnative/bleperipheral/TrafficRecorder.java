@@ -0,0 +1,293 @@
+package com.reactnative.peripheral;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Appends every request, response, notification and connection event passing through the
+ * dispatcher to a binary log, so that production traffic can be replayed offline. Records go to a
+ * memory-mapped file and cost one copy each; the bytes are in the page cache right away, so they
+ * survive the app crashing. Once a file is full it's rotated to log.1, log.1 to log.2 and so on,
+ * keeping at most a fixed number of files.
+ *
+ * Every record has the same layout, what its fields mean depends on its type:
+ * <pre>
+ * int length (of what follows), byte type, long nanoTime, address, int requestId, int handle,
+ * int offset, int arg, byte flags, value
+ * </pre>
+ * with the address as a byte length and its UTF-8 bytes, and the value as an int length, -1 for
+ * null, and its bytes. A length of 0 marks the end of the records in a file.
+ */
+class TrafficRecorder {
+
+    private static final int MAGIC = 0x47545246; // GTRF
+    private static final int VERSION = 1;
+    /** Magic, version, wall clock millis and nanoTime when the file was started. */
+    private static final int FILE_HEADER_LENGTH = 4 + 4 + 8 + 8;
+
+    static final int DEFAULT_MAX_FILE_SIZE = 8 << 20;
+    static final int DEFAULT_MAX_FILES = 4;
+
+    // from the stack: arg is the MTU, the tx and rx PHY as tx << 8 | rx, or the read's SOURCE_*
+    static final int CONNECTED = 1;
+    static final int DISCONNECTED = 2;
+    static final int MTU_CHANGED = 3;
+    static final int PHY_CHANGED = 4;
+    static final int READ_REQUEST = 5;
+    static final int WRITE_REQUEST = 6;
+    static final int EXECUTE_WRITE = 7;
+    static final int DESCRIPTOR_READ = 8;
+    static final int DESCRIPTOR_WRITE = 9;
+    static final int NOTIFICATION_SENT = 10;
+    // from JS, without an address
+    static final int JS_RESPONSE = 11;
+    static final int JS_NOTIFY = 12;
+    // to the stack: arg is the status
+    static final int RESPONSE = 13;
+    static final int NOTIFICATION = 14;
+
+    /** Read forwarded to JS. */
+    static final int SOURCE_JS = 0;
+    /** Read answered from the value cache. */
+    static final int SOURCE_CACHE = 1;
+    /** Blob read continuing a long read. */
+    static final int SOURCE_SEQUENCE = 2;
+
+    static final int FLAG_PREPARED = 1;
+    static final int FLAG_RESPONSE_NEEDED = 2;
+    /** Execute of an execute write, success of a sent notification or JS response. */
+    static final int FLAG_SUCCESS = 4;
+    /** Indication rather than notification. */
+    static final int FLAG_CONFIRM = 8;
+
+    static final class Record {
+        int type;
+        long at;
+        String address;
+        int requestId;
+        int handle;
+        int offset;
+        int arg;
+        int flags;
+        byte[] value;
+
+        boolean hasFlag(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    private final File mFile;
+    private final int mMaxFileSize;
+    private final int mMaxFiles;
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mRegion;
+    private long mRecords;
+    private long mDropped;
+
+    /**
+     * Starts a new log at the path, rotating the one already there.
+     *
+     * @param maxFileSize bytes per file, mapped up front
+     * @param maxFiles    files kept including the current one, older ones are deleted
+     */
+    TrafficRecorder(File file, int maxFileSize, int maxFiles) throws IOException {
+        mFile = file;
+        mMaxFileSize = Math.max(FILE_HEADER_LENGTH + 4, maxFileSize);
+        mMaxFiles = Math.max(1, maxFiles);
+        open();
+    }
+
+    String getPath() {
+        return mFile.getAbsolutePath();
+    }
+
+    long getRecordCount() {
+        return mRecords;
+    }
+
+    /**
+     * Returns how many records were dropped because they're larger than a file.
+     */
+    long getDroppedCount() {
+        return mDropped;
+    }
+
+    void record(int type, long at, String address, int requestId, int handle, int offset, int arg, int flags,
+                byte[] value) {
+        if (mRegion == null) {
+            return;
+        }
+        byte[] addressBytes = address != null ? address.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int length = 1 + 8 + 1 + Math.min(addressBytes.length, 255) + 4 * 4 + 1 + 4
+                + (value != null ? value.length : 0);
+        // the record, and the 0 marking the end after it
+        if (4 + length + 4 > mMaxFileSize - FILE_HEADER_LENGTH) {
+            mDropped++;
+            return;
+        }
+        if (mRegion.remaining() < 4 + length + 4) {
+            try {
+                rotate();
+            } catch (IOException e) {
+                mRegion = null;
+                mDropped++;
+                return;
+            }
+        }
+        mRegion.putInt(length);
+        mRegion.put((byte) type);
+        mRegion.putLong(at);
+        mRegion.put((byte) Math.min(addressBytes.length, 255));
+        mRegion.put(addressBytes, 0, Math.min(addressBytes.length, 255));
+        mRegion.putInt(requestId);
+        mRegion.putInt(handle);
+        mRegion.putInt(offset);
+        mRegion.putInt(arg);
+        mRegion.put((byte) flags);
+        if (value != null) {
+            mRegion.putInt(value.length);
+            mRegion.put(value);
+        } else {
+            mRegion.putInt(-1);
+        }
+        mRecords++;
+    }
+
+    /**
+     * Writes the current file to disk and trims its unused end. Nothing is recorded afterwards.
+     */
+    void close() throws IOException {
+        if (mRandomAccessFile == null) {
+            return;
+        }
+        try {
+            if (mRegion != null) {
+                finish();
+            } else {
+                // recording stopped after a failed rotation
+                mRandomAccessFile.close();
+            }
+        } finally {
+            mRandomAccessFile = null;
+            mRegion = null;
+        }
+    }
+
+    /**
+     * Reads the records of the log at the path and of its rotated files, oldest first. A file
+     * cut short, e.g. by a crash, yields the records written before.
+     */
+    static List<Record> read(File file) throws IOException {
+        ArrayList<File> files = new ArrayList<>();
+        for (int i = 1; getRotatedFile(file, i).exists(); i++) {
+            files.add(0, getRotatedFile(file, i));
+        }
+        if (file.exists()) {
+            files.add(file);
+        }
+        ArrayList<Record> records = new ArrayList<>();
+        for (File part : files) {
+            readFile(part, records);
+        }
+        return records;
+    }
+
+    private static void readFile(File file, List<Record> records) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = input.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            input.close();
+        }
+        if (buffer.remaining() < FILE_HEADER_LENGTH || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException(file + " is not a traffic log of version " + VERSION);
+        }
+        buffer.position(FILE_HEADER_LENGTH);
+        try {
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                Record record = new Record();
+                record.type = buffer.get();
+                record.at = buffer.getLong();
+                byte[] address = new byte[buffer.get() & 0xFF];
+                buffer.get(address);
+                record.address = address.length > 0 ? new String(address, StandardCharsets.UTF_8) : null;
+                record.requestId = buffer.getInt();
+                record.handle = buffer.getInt();
+                record.offset = buffer.getInt();
+                record.arg = buffer.getInt();
+                record.flags = buffer.get();
+                int valueLength = buffer.getInt();
+                if (valueLength >= 0) {
+                    record.value = new byte[valueLength];
+                    buffer.get(record.value);
+                }
+                records.add(record);
+            }
+        } catch (BufferUnderflowException e) {
+            // the last record was cut short
+        }
+    }
+
+    private void open() throws IOException {
+        shiftRotatedFiles();
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mRandomAccessFile.setLength(0);
+        mRegion = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mMaxFileSize);
+        mRegion.putInt(MAGIC);
+        mRegion.putInt(VERSION);
+        mRegion.putLong(System.currentTimeMillis());
+        mRegion.putLong(System.nanoTime());
+    }
+
+    private void rotate() throws IOException {
+        finish();
+        open();
+    }
+
+    private void finish() throws IOException {
+        try {
+            int end = mRegion.position();
+            mRegion.force();
+            mRandomAccessFile.setLength(end);
+        } finally {
+            mRandomAccessFile.close();
+        }
+    }
+
+    /**
+     * Moves log to log.1, log.1 to log.2 and so on, deleting the files beyond the maximum.
+     */
+    private void shiftRotatedFiles() {
+        // the oldest file kept, and any longer history left by a recorder keeping more files
+        for (int i = Math.max(1, mMaxFiles - 1); getRotatedFile(mFile, i).exists(); i++) {
+            getRotatedFile(mFile, i).delete();
+        }
+        for (int i = mMaxFiles - 2; i >= 1; i--) {
+            File rotated = getRotatedFile(mFile, i);
+            if (rotated.exists()) {
+                rotated.renameTo(getRotatedFile(mFile, i + 1));
+            }
+        }
+        if (mMaxFiles > 1 && mFile.exists()) {
+            mFile.renameTo(getRotatedFile(mFile, 1));
+        }
+    }
+
+    private static File getRotatedFile(File file, int index) {
+        return new File(file.getPath() + "." + index);
+    }
+}
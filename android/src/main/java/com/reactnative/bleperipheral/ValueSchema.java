@@ -0,0 +1,233 @@
+package com.reactnative.peripheral;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Binary layout of a characteristic value: fixed-size numeric fields in order, optionally followed
+ * by one utf8 or bytes field taking the rest of the value. Values are packed from and unpacked
+ * into named fields natively, so JS doesn't have to build them byte by byte.
+ */
+final class ValueSchema {
+
+    static final int TYPE_UINT8 = 0;
+    static final int TYPE_INT8 = 1;
+    static final int TYPE_UINT16 = 2;
+    static final int TYPE_INT16 = 3;
+    static final int TYPE_UINT32 = 4;
+    static final int TYPE_INT32 = 5;
+    static final int TYPE_FLOAT32 = 6;
+    static final int TYPE_FLOAT64 = 7;
+    /** Variable length, UTF-8 encoded string. */
+    static final int TYPE_UTF8 = 8;
+    /** Variable length, Base64 encoded in JS. */
+    static final int TYPE_BYTES = 9;
+
+    private static final int[] LENGTHS = {1, 1, 2, 2, 4, 4, 4, 8, 0, 0};
+
+    /**
+     * Reads the field values to pack.
+     */
+    interface Fields {
+        boolean has(String name);
+
+        double getNumber(String name);
+
+        String getString(String name);
+    }
+
+    static final class Field {
+        final String name;
+        final int type;
+        final ByteOrder order;
+
+        Field(String name, int type, boolean bigEndian) {
+            this.name = name;
+            this.type = type;
+            this.order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        }
+
+        boolean isBigEndian() {
+            return order == ByteOrder.BIG_ENDIAN;
+        }
+    }
+
+    private final Field[] mFields;
+    private final int mFixedLength;
+    private final boolean mVariableLength;
+
+    /**
+     * Throws IllegalArgumentException when the layout is invalid.
+     */
+    ValueSchema(List<Field> fields) {
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("Schema has no fields");
+        }
+        HashSet<String> names = new HashSet<>();
+        int fixedLength = 0;
+        boolean variableLength = false;
+        for (Field field : fields) {
+            if (field.name == null || !names.add(field.name)) {
+                throw new IllegalArgumentException("Missing or duplicate field name " + field.name);
+            }
+            if (variableLength) {
+                throw new IllegalArgumentException("Field " + field.name + " follows a variable length field");
+            }
+            variableLength = LENGTHS[field.type] == 0;
+            fixedLength += LENGTHS[field.type];
+        }
+        mFields = fields.toArray(new Field[0]);
+        mFixedLength = fixedLength;
+        mVariableLength = variableLength;
+    }
+
+    List<Field> getFields() {
+        return Collections.unmodifiableList(Arrays.asList(mFields));
+    }
+
+    /**
+     * Throws IllegalArgumentException for an unknown type.
+     */
+    static int parseType(String type) {
+        if (type != null) {
+            switch (type) {
+                case "uint8":
+                    return TYPE_UINT8;
+                case "int8":
+                    return TYPE_INT8;
+                case "uint16":
+                    return TYPE_UINT16;
+                case "int16":
+                    return TYPE_INT16;
+                case "uint32":
+                    return TYPE_UINT32;
+                case "int32":
+                    return TYPE_INT32;
+                case "float32":
+                    return TYPE_FLOAT32;
+                case "float64":
+                    return TYPE_FLOAT64;
+                case "utf8":
+                    return TYPE_UTF8;
+                case "bytes":
+                    return TYPE_BYTES;
+            }
+        }
+        throw new IllegalArgumentException("Unknown field type " + type);
+    }
+
+    /**
+     * Packs the fields into a value. Missing fields are packed as 0 or empty. Throws
+     * IllegalArgumentException when a number is not an integer or doesn't fit its field.
+     */
+    byte[] pack(Fields values) {
+        byte[] variable = new byte[0];
+        if (mVariableLength) {
+            Field last = mFields[mFields.length - 1];
+            String string = values.has(last.name) ? values.getString(last.name) : null;
+            if (string != null) {
+                variable = last.type == TYPE_UTF8 ? string.getBytes(StandardCharsets.UTF_8)
+                        : Base64Codec.decode(string);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(mFixedLength + variable.length);
+        for (Field field : mFields) {
+            buffer.order(field.order);
+            if (LENGTHS[field.type] == 0) {
+                buffer.put(variable);
+                break;
+            }
+            double number = values.has(field.name) ? values.getNumber(field.name) : 0;
+            switch (field.type) {
+                case TYPE_UINT8:
+                    buffer.put((byte) toInteger(field, number, 0, 0xFF));
+                    break;
+                case TYPE_INT8:
+                    buffer.put((byte) toInteger(field, number, Byte.MIN_VALUE, Byte.MAX_VALUE));
+                    break;
+                case TYPE_UINT16:
+                    buffer.putShort((short) toInteger(field, number, 0, 0xFFFF));
+                    break;
+                case TYPE_INT16:
+                    buffer.putShort((short) toInteger(field, number, Short.MIN_VALUE, Short.MAX_VALUE));
+                    break;
+                case TYPE_UINT32:
+                    buffer.putInt((int) toInteger(field, number, 0, 0xFFFFFFFFL));
+                    break;
+                case TYPE_INT32:
+                    buffer.putInt((int) toInteger(field, number, Integer.MIN_VALUE, Integer.MAX_VALUE));
+                    break;
+                case TYPE_FLOAT32:
+                    buffer.putFloat((float) number);
+                    break;
+                case TYPE_FLOAT64:
+                    buffer.putDouble(number);
+                    break;
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Unpacks the value into the params, one entry per field. Returns false, without putting
+     * anything, when the value is shorter than the fixed-size fields, or longer without a variable
+     * length field.
+     */
+    boolean unpack(byte[] value, GattEvents.Params params) {
+        if (value == null || value.length < mFixedLength || (!mVariableLength && value.length > mFixedLength)) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        for (Field field : mFields) {
+            buffer.order(field.order);
+            switch (field.type) {
+                case TYPE_UINT8:
+                    params.putInt(field.name, buffer.get() & 0xFF);
+                    break;
+                case TYPE_INT8:
+                    params.putInt(field.name, buffer.get());
+                    break;
+                case TYPE_UINT16:
+                    params.putInt(field.name, buffer.getShort() & 0xFFFF);
+                    break;
+                case TYPE_INT16:
+                    params.putInt(field.name, buffer.getShort());
+                    break;
+                case TYPE_UINT32:
+                    params.putDouble(field.name, buffer.getInt() & 0xFFFFFFFFL);
+                    break;
+                case TYPE_INT32:
+                    params.putInt(field.name, buffer.getInt());
+                    break;
+                case TYPE_FLOAT32:
+                    params.putDouble(field.name, buffer.getFloat());
+                    break;
+                case TYPE_FLOAT64:
+                    params.putDouble(field.name, buffer.getDouble());
+                    break;
+                case TYPE_UTF8:
+                    params.putString(field.name, new String(value, buffer.position(), buffer.remaining(),
+                            StandardCharsets.UTF_8));
+                    break;
+                case TYPE_BYTES:
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    params.putString(field.name, Base64Codec.encode(bytes));
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private static long toInteger(Field field, double number, long min, long max) {
+        if (number != Math.rint(number) || number < min || number > max) {
+            throw new IllegalArgumentException(number + " doesn't fit " + field.name);
+        }
+        return (long) number;
+    }
+}
@@ -0,0 +1,113 @@
+package com.reactnative.peripheral;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stores the values written to a characteristic in a file instead of handing them to JS. Each
+ * write is appended to a memory-mapped region of the file, so a chunk costs one copy and no
+ * system call.
+ */
+class WriteSink {
+
+    /** Size of the regions mapped when the total length isn't known up front. */
+    private static final int REGION_SIZE = 1 << 20;
+
+    private final File mFile;
+    private final long mExpectedLength;
+    private final long mProgressInterval;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private MappedByteBuffer mRegion;
+    private long mBytesWritten;
+    private long mNextProgress;
+
+    /**
+     * Creates or truncates the file. With an expected length greater than 0 the sink is complete
+     * once that many bytes were written and refuses anything beyond. A progress interval of 0
+     * reports no progress.
+     */
+    WriteSink(File file, long expectedLength, long progressInterval) throws IOException {
+        mFile = file;
+        mExpectedLength = Math.max(0, expectedLength);
+        mProgressInterval = Math.max(0, progressInterval);
+        mNextProgress = mProgressInterval;
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        mRandomAccessFile.setLength(0);
+        mChannel = mRandomAccessFile.getChannel();
+    }
+
+    /**
+     * Appends the value. Returns false, without writing anything, when it would exceed the
+     * expected length.
+     */
+    boolean write(byte[] value) throws IOException {
+        if (mExpectedLength > 0 && mBytesWritten + value.length > mExpectedLength) {
+            return false;
+        }
+        int written = 0;
+        while (written < value.length) {
+            if (mRegion == null || !mRegion.hasRemaining()) {
+                map();
+            }
+            int length = Math.min(value.length - written, mRegion.remaining());
+            mRegion.put(value, written, length);
+            written += length;
+            mBytesWritten += length;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a progress interval was crossed since the last call.
+     */
+    boolean takeProgress() {
+        if (mProgressInterval == 0 || mBytesWritten < mNextProgress) {
+            return false;
+        }
+        mNextProgress = (mBytesWritten / mProgressInterval + 1) * mProgressInterval;
+        return true;
+    }
+
+    boolean isComplete() {
+        return mExpectedLength > 0 && mBytesWritten == mExpectedLength;
+    }
+
+    long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    long getExpectedLength() {
+        return mExpectedLength;
+    }
+
+    String getPath() {
+        return mFile.getAbsolutePath();
+    }
+
+    /**
+     * Flushes the written bytes to the file and trims the unused end of the last mapped region.
+     */
+    void close() throws IOException {
+        try {
+            if (mRegion != null) {
+                mRegion.force();
+                mRegion = null;
+            }
+            mRandomAccessFile.setLength(mBytesWritten);
+        } finally {
+            mRandomAccessFile.close();
+        }
+    }
+
+    private void map() throws IOException {
+        if (mRegion != null) {
+            mRegion.force();
+        }
+        long size = mExpectedLength > 0 ? Math.min(mExpectedLength - mBytesWritten, Integer.MAX_VALUE) : REGION_SIZE;
+        mRegion = mChannel.map(FileChannel.MapMode.READ_WRITE, mBytesWritten, size);
+    }
+}
@@ -1,10 +1,25 @@
-import { NativeModules } from 'react-native'
+import { NativeModules, Platform } from 'react-native'
 
 const { RNBlePeripheral } = NativeModules
 
 export default class Characteristic {
   // descriptors?: Descriptor[];
 
+  /** _[Android]_ Native attribute handle, assigned once the characteristic's service has been added. */
+  handle?: number
+
+  /** How the native side caches the value for read requests. */
+  cacheMode?: CacheMode
+
+  /** Lifetime of a cached value in milliseconds, used with the `ttl` cache mode. */
+  cacheTtl?: number
+
+  /** How notify calls are conflated, deduplicated and rate limited natively. */
+  notifyPolicy?: NotifyPolicy
+
+  /** Binary layout of the value, packed and unpacked natively. */
+  schema?: SchemaField[]
+
   /** Permissions assigned to the characteristic. */
   permissions?: Permission[]
 
@@ -21,6 +36,24 @@ export default class Characteristic {
    * Define a GATT characteristic.
    */
   constructor(params: {
+    /**
+     * _[Android]_ How the native side caches the value for read requests.
+     *
+     * `static` answers reads natively until a new value is set, `ttl` answers natively for `cacheTtl` milliseconds after the value was last set, `dynamic` calls `onReadRequest` for every read.
+     *
+     * Defaults to `dynamic`. With `static` or `ttl`, update the value with `setValue`; assigning `value` doesn't reach the native cache.
+     */
+    cacheMode?: CacheMode
+    /** _[Android]_ Lifetime of a cached value in milliseconds, used with the `ttl` cache mode. */
+    cacheTtl?: number
+    /**
+     * _[Android]_ How notify calls are conflated, deduplicated and rate limited natively, for values that change faster than the link can carry them. By default every call is sent.
+     */
+    notifyPolicy?: NotifyPolicy
+    /**
+     * _[Android]_ Binary layout of the value, as a list of fields packed in order. With a schema, `onReadRequest` may resolve with an object of field values, `onWriteRequest` gets the written fields, and `notifyFields` sends them, all packed and unpacked natively.
+     */
+    schema?: SchemaField[]
     /**
      * Permissions assigned to the characteristic.
      *
@@ -37,38 +70,219 @@ export default class Characteristic {
     uuid: string
     /** Base64-encoded value. You can set a static value here or provide `onReadRequest`/`onWriteRequest` to change it dynamically. */
     value?: string
-    /** Implement to calculate value dynamically. */
-    onReadRequest?: (offset?: number) => Promise<string>
-    /** Implement to save value dynamically. */
-    onWriteRequest?: (data: string, offset?: number) => Promise<void>
+    /** Implement to calculate value dynamically. With a `schema`, may resolve with the field values instead. */
+    onReadRequest?: (offset?: number) => Promise<string | FieldValues>
+    /** Implement to save value dynamically. With a `schema`, `fields` holds the written value unpacked, unless it didn't match the schema. */
+    onWriteRequest?: (
+      data: string,
+      offset?: number,
+      fields?: FieldValues
+    ) => Promise<void>
+    /** _[Android]_ Called every `progressInterval` bytes stored by the write sink. */
+    onWriteSinkProgress?: (bytesWritten: number, expectedLength: number) => void
+    /** _[Android]_ Called once the write sink received `length` bytes, or failed. */
+    onWriteSinkComplete?: (result: WriteSinkResult) => void
+    /** _[Android]_ Called whenever another percent of a `notifyStream` was sent. */
+    onNotifyStreamProgress?: (path: string, sent: number, total: number) => void
   }) {
     if (!params.uuid) throw new Error('Characteristic UUID is required!')
 
     Object.assign(this, {
       ...params,
       uuid: params.uuid.toLowerCase(),
+      cacheMode: params.cacheMode || 'dynamic',
     })
   }
 
-  onReadRequest(offset?: number): Promise<string> {
+  onReadRequest(offset?: number): Promise<string | FieldValues> {
     return Promise.resolve(this.value || '')
   }
 
-  onWriteRequest(data: string, offset?: number): Promise<void> {
+  onWriteRequest(
+    data: string,
+    offset?: number,
+    fields?: FieldValues
+  ): Promise<void> {
     this.value = data
     return Promise.resolve()
   }
 
+  /**
+   * Update the value and push it to the native read cache, so that subsequent reads don't have to call into JS.
+   */
+  setValue(value: string): Promise<void> {
+    this.value = value
+    // before the service is added, the value is passed along with it
+    if (this.handle === undefined) return Promise.resolve()
+    return RNBlePeripheral.setCharacteristicValue(this.handle, value)
+  }
+
+  /**
+   * _[Android]_ Store everything centrals write to this characteristic in a file natively, instead of calling `onWriteRequest` for every chunk.
+   *
+   * Writes are appended to the file in the order they arrive and acknowledged once they're stored. `onWriteSinkProgress` is called every `progressInterval` bytes and `onWriteSinkComplete` once `length` bytes were written, if given, or when a write fails.
+   */
+  startWriteSink(
+    path: string,
+    options: {
+      /** Expected number of bytes. Writes beyond it are refused. */
+      length?: number
+      /** Number of bytes between progress callbacks, 0 for none. */
+      progressInterval?: number
+    } = {}
+  ): Promise<void> {
+    if (this.handle === undefined)
+      return Promise.reject(new Error('characteristic_not_found'))
+    return RNBlePeripheral.startWriteSink(
+      this.handle,
+      path,
+      options.length || 0,
+      options.progressInterval || 0
+    )
+  }
+
+  /**
+   * _[Android]_ Close the write sink, resolving with the path and the number of bytes written.
+   */
+  stopWriteSink(): Promise<WriteSinkResult> {
+    if (this.handle === undefined)
+      return Promise.reject(new Error('characteristic_not_found'))
+    return RNBlePeripheral.stopWriteSink(this.handle)
+  }
+
+  onWriteSinkProgress(bytesWritten: number, expectedLength: number) {}
+
+  onWriteSinkComplete(result: WriteSinkResult) {}
+
   onSubscribe() {}
 
   onUnsubscribe() {}
 
-  /** Notify subscribed clients with an updated value. */
+  /**
+   * Notify subscribed clients with an updated value.
+   *
+   * _[Android]_ Only clients that subscribed get the value, as a notification or an indication depending on what they enabled. Notifications are queued per client and the promise resolves once they have been sent.
+   */
   notify(value?: string): Promise<void> {
+    if (this.handle !== undefined)
+      return RNBlePeripheral.notifyHandle(
+        this.handle,
+        value || this.value || ''
+      )
     return RNBlePeripheral.notify(this.uuid, value || this.value || '')
   }
+
+  /**
+   * _[Android]_ Notify subscribed clients with a value packed natively from the field values, according to the `schema`.
+   */
+  notifyFields(fields: FieldValues): Promise<void> {
+    if (this.handle === undefined || Platform.OS !== 'android')
+      return Promise.reject(new Error('schema_not_found'))
+    return RNBlePeripheral.notifyFields(this.handle, fields)
+  }
+
+  /**
+   * _[Android]_ Send the contents of a file to subscribed clients as consecutive notifications, each as large as the client's MTU allows.
+   *
+   * The file is read natively, without passing its contents over the bridge. `onNotifyStreamProgress` reports the number of notifications sent so far; the promise resolves once all of them have been sent.
+   */
+  notifyStream(path: string): Promise<void> {
+    if (this.handle === undefined)
+      return Promise.reject(new Error('characteristic_not_found'))
+    return RNBlePeripheral.notifyStream(this.handle, path)
+  }
+
+  onNotifyStreamProgress(path: string, sent: number, total: number) {}
+
+  /**
+   * _[Android]_ Change how notify calls are conflated, deduplicated and rate limited natively. Pass `{}` to send every call again.
+   */
+  setNotifyPolicy(policy: NotifyPolicy): Promise<void> {
+    this.notifyPolicy = policy
+    // before the service is added, the policy is passed along with it
+    if (this.handle === undefined || Platform.OS !== 'android')
+      return Promise.resolve()
+    return RNBlePeripheral.setNotifyPolicy(this.handle, policy)
+  }
+
+  /**
+   * _[Android]_ Change how the value is cached natively for read requests, see `cacheMode`. Switching to `static` or `ttl` caches the current `value`.
+   */
+  async setCacheMode(mode: CacheMode, ttl: number = 0): Promise<void> {
+    this.cacheMode = mode
+    this.cacheTtl = ttl
+    // before the service is added, the mode is passed along with it
+    if (this.handle === undefined || Platform.OS !== 'android') return
+    await RNBlePeripheral.setCacheMode(this.handle, mode, ttl)
+    if (mode !== 'dynamic' && this.value !== undefined)
+      await RNBlePeripheral.setCharacteristicValue(this.handle, this.value)
+  }
+
+  /**
+   * _[Android]_ Queue a notification synchronously, skipping the asynchronous bridge round trip. Returns whether the notification was queued; it's sent in the background without reporting back.
+   *
+   * Falls back to `notify` on iOS. Synchronous native calls are not available while debugging JS remotely.
+   */
+  notifySync(value?: string): boolean {
+    if (this.handle === undefined) {
+      this.notify(value)
+      return true
+    }
+    return RNBlePeripheral.notifySync(this.handle, value || this.value || '')
+  }
+}
+
+export type WriteSinkResult = {
+  path: string
+  bytesWritten: number
+  /** Set when the sink was closed because of an error, e.g. `length_exceeded`. */
+  error?: string
 }
 
+/**
+ * A notify call skipped by a policy resolves once the value that replaced it was sent, or right away when it was a repeat.
+ */
+export type NotifyPolicy = {
+  /** While a value is being sent, hold only the latest value notified in the meantime. */
+  conflate?: boolean
+  /** Skip values byte-identical to the value sent before. */
+  dedupe?: boolean
+  /** Send at most this many values per second. Values in between are conflated, the latest one is sent once the next slot comes. */
+  maxHz?: number
+}
+
+export type FieldType =
+  | 'uint8'
+  | 'int8'
+  | 'uint16'
+  | 'int16'
+  | 'uint32'
+  | 'int32'
+  | 'float32'
+  | 'float64'
+  /** UTF-8 string taking the rest of the value, only as the last field. */
+  | 'utf8'
+  /** Base64-encoded bytes taking the rest of the value, only as the last field. */
+  | 'bytes'
+
+export type SchemaField = {
+  name: string
+  type: FieldType
+  /** Byte order of numeric fields, defaults to `little` as used by Bluetooth. */
+  endian?: 'little' | 'big'
+}
+
+/** Field values by name, numbers for numeric fields and strings for `utf8` and `bytes`. Missing fields are packed as 0 or empty. */
+export type FieldValues = { [name: string]: number | string }
+
+export type CacheMode =
+  /** Every read request calls `onReadRequest`. */
+  | 'dynamic'
+  /** Reads are answered natively until a new value is set. */
+  | 'static'
+  /** Reads are answered natively for `cacheTtl` milliseconds after the value was last set. */
+  | 'ttl'
+
 export type Permission =
   /** A permission that indicates a peripheral can read the attribute’s value. */
   | 'readable'
@@ -2,19 +2,28 @@ import {
   NativeEventEmitter,
   NativeModules,
   EventSubscription,
+  Platform,
 } from 'react-native'
 import Service from './Service'
-import Characteristic from './Characteristic'
+import Characteristic, { FieldValues } from './Characteristic'
+import ResultStatus from './ResultStatus'
 
 const { RNBlePeripheral } = NativeModules
 const EventEmitter = new NativeEventEmitter(RNBlePeripheral)
 
 export default class Manager {
   private characteristics: { [uuid: string]: Characteristic } = {}
+  private characteristicsByHandle: Characteristic[] = []
+  private restoredServices: Service[] = []
+  private synchronousResponses = false
   private readRequestListener?: EventSubscription
   private subscribeListener?: EventSubscription
   private unsubscribeListener?: EventSubscription
   private writeRequestListener?: EventSubscription
+  private writeSinkProgressListener?: EventSubscription
+  private writeSinkCompleteListener?: EventSubscription
+  private notifyStreamProgressListener?: EventSubscription
+  private eventBatchListener?: EventSubscription
 
   /**
    * Add service, along with its characteristics and nested services, to the peripheral.
@@ -24,23 +33,99 @@ export default class Manager {
    * _[iOS]_ After you add a service to the peripheral’s local database, Core Bluetooth caches the service and you can no longer make changes to it.
    */
   async addService(service: Service): Promise<void> {
-    await RNBlePeripheral.addService(service)
+    // [Android] resolves with the native handle of each characteristic
+    const handles = await RNBlePeripheral.addService(service)
+    this.forgetRestoredServices([service])
+    this.registerCharacteristics(service, handles)
+  }
+
+  /**
+   * Add several services at once. If any of them can't be added, none are.
+   *
+   * _[Android]_ The services are added to the GATT database one after another; once advertising, the promise resolves when all of them are live.
+   *
+   * _[Android]_ With `snapshot`, the services are also saved natively and restored on the next start before JS has loaded. As long as their definitions don't change, only a hash of them is sent over the bridge.
+   */
+  async addServices(
+    services: Service[],
+    options: { snapshot?: boolean } = {}
+  ): Promise<void> {
+    if (Platform.OS !== 'android') {
+      for (const service of services) await this.addService(service)
+      return
+    }
+
+    let handles
+    if (options.snapshot) {
+      const hash = hashServices(services)
+      handles = await RNBlePeripheral.restoreServices(hash)
+      if (handles) {
+        this.restoredServices = services
+      } else {
+        // the native module removed the services it restored before
+        this.restoredServices.forEach(service =>
+          this.unregisterCharacteristics(service)
+        )
+        this.restoredServices = []
+        handles = await RNBlePeripheral.addServicesAndSnapshot(services, hash)
+      }
+    } else {
+      handles = await RNBlePeripheral.addServices(services)
+      this.forgetRestoredServices(services)
+    }
+    services.forEach(service =>
+      this.registerCharacteristics(service, handles[service.uuid])
+    )
+  }
+
+  private registerCharacteristics(
+    service: Service,
+    handles?: { [uuid: string]: number }
+  ) {
+    const characteristics = service.characteristicsByUuid()
+
+    if (handles) {
+      Object.keys(handles).forEach(uuid => {
+        const ch = characteristics[uuid]
+        if (!ch) return
+        ch.handle = handles[uuid]
+        this.characteristicsByHandle[ch.handle] = ch
+      })
+    }
 
     this.characteristics = {
       ...this.characteristics,
-      ...service.characteristicsByUuid(),
+      ...characteristics,
     }
   }
 
+  // the native module replaces services restored from the snapshot that are added again
+  private forgetRestoredServices(services: Service[]) {
+    const uuids = services.map(service => service.uuid)
+    this.restoredServices = this.restoredServices.filter(
+      service => uuids.indexOf(service.uuid) < 0
+    )
+  }
+
   /**
    * Removes a specified published service from the local GATT database.
    */
   async removeService(service: Service): Promise<void> {
     await RNBlePeripheral.removeService(service)
+    this.forgetRestoredServices([service])
+    this.unregisterCharacteristics(service)
+  }
 
-    Object.keys(service.characteristicsByUuid()).forEach(
-      chUuid => delete this.characteristics[chUuid]
-    )
+  private unregisterCharacteristics(service: Service) {
+    const characteristics = service.characteristicsByUuid()
+    Object.keys(characteristics).forEach(chUuid => {
+      const ch = characteristics[chUuid]
+      if (ch.handle !== undefined) {
+        delete this.characteristicsByHandle[ch.handle]
+        ch.handle = undefined
+      }
+      delete this.characteristics[chUuid]
+    })
   }
 
   /**
@@ -51,7 +136,24 @@ export default class Manager {
   async removeAllServices(): Promise<void> {
     await RNBlePeripheral.removeAllServices()
 
+    Object.keys(this.characteristics).forEach(
+      chUuid => (this.characteristics[chUuid].handle = undefined)
+    )
     this.characteristics = {}
+    this.characteristicsByHandle = []
+    this.restoredServices = []
+  }
+
+  /**
+   * _[Android]_ Delete the services saved by `addServices` with `snapshot`, they won't be restored on the next start. Services restored from the snapshot are removed.
+   */
+  async clearServiceSnapshot(): Promise<void> {
+    if (Platform.OS !== 'android') return
+    const removed: string[] = await RNBlePeripheral.clearServiceSnapshot()
+    this.restoredServices
+      .filter(service => removed.indexOf(service.uuid) >= 0)
+      .forEach(service => this.unregisterCharacteristics(service))
+    this.restoredServices = []
   }
 
   /**
@@ -61,34 +163,35 @@ export default class Manager {
    * Any service UUIDs contained in the value of the `serviceUuids` key that don’t fit in the allotted space go to a special “overflow” area. These services are discoverable only by an iOS device explicitly scanning for them.
    * While your app is in the background, the local name isn’t advertised and all service UUIDs are in the overflow area.
    *
-   * _[Android]_ An advertiser can broadcast up to 31 bytes of advertisement data.
+   * _[Android]_ An advertiser can broadcast up to 31 bytes of advertisement data. The advertising profile options are described in `setAdvertisingProfile`.
    */
-  async startAdvertising(data: {
-    /** Local name of the device to be advertised. */
-    name: string
-    /** A list of service UUIDs. */
-    serviceUuids: string[]
-  }): Promise<void> {
+  async startAdvertising(
+    data: {
+      /** Local name of the device to be advertised. */
+      name: string
+      /** A list of service UUIDs. */
+      serviceUuids: string[]
+    } & AdvertisingOptions
+  ): Promise<void> {
     await RNBlePeripheral.startAdvertising(data)
 
     this.readRequestListener = EventEmitter.addListener(
       RNBlePeripheral.READ_REQUEST,
       (params: {
         requestId: string
+        handle?: number
         characteristicUuid: string
         offset?: number
       }) => {
-        const ch = this.characteristics[params.characteristicUuid.toLowerCase()]
+        const ch = this.findCharacteristic(params)
 
         if (!ch)
-          return RNBlePeripheral.respond(
-            params.requestId,
-            'invalidHandle',
-            null
-          )
+          return this.respond(params.requestId, 'invalidHandle', null)
 
         ch.onReadRequest(params.offset).then(value =>
-          RNBlePeripheral.respond(params.requestId, 'success', value)
+          typeof value === 'string'
+            ? this.respond(params.requestId, 'success', value)
+            : this.respondFields(params.requestId, ch, value)
         )
       }
     )
@@ -97,42 +200,192 @@ export default class Manager {
       RNBlePeripheral.WRITE_REQUEST,
       (params: {
         requestId: string
+        handle?: number
         characteristicUuid: string
         value: string
         offset?: number
+        responseNeeded?: boolean
+        fields?: FieldValues
       }) => {
-        const ch = this.characteristics[params.characteristicUuid.toLowerCase()]
+        const ch = this.findCharacteristic(params)
+        // [Android] writes without response have no pending request to answer
+        const respond = params.responseNeeded !== false
 
         if (!ch)
-          return RNBlePeripheral.respond(
-            params.requestId,
-            'invalidHandle',
-            null
-          )
-
-        ch.onWriteRequest(params.value, params.offset).then(() =>
-          RNBlePeripheral.respond(params.requestId, 'success', null)
-        )
+          return respond
+            ? this.respond(params.requestId, 'invalidHandle', null)
+            : undefined
+
+        const { value, offset, fields } = params
+        ch.onWriteRequest(value, offset, fields).then(() => {
+          // keep the native read cache in sync with the written value
+          if (
+            ch.handle !== undefined &&
+            ch.cacheMode !== 'dynamic' &&
+            ch.value !== undefined
+          ) {
+            RNBlePeripheral.setCharacteristicValue(ch.handle, ch.value)
+          }
+          return respond
+            ? this.respond(params.requestId, 'success', null)
+            : undefined
+        })
       }
     )
 
     this.subscribeListener = EventEmitter.addListener(
       RNBlePeripheral.SUBSCRIBED,
-      (params: { characteristicUuid: string; centralUuid: string }) => {
-        const ch = this.characteristics[params.characteristicUuid.toLowerCase()]
+      (params: {
+        handle?: number
+        characteristicUuid: string
+        centralUuid: string
+      }) => {
+        const ch = this.findCharacteristic(params)
         if (ch) ch.onSubscribe()
       }
     )
 
+    this.writeSinkProgressListener = EventEmitter.addListener(
+      RNBlePeripheral.WRITE_SINK_PROGRESS,
+      (params: {
+        handle: number
+        characteristicUuid: string
+        bytesWritten: number
+        expectedLength: number
+      }) => {
+        const ch = this.findCharacteristic(params)
+        if (ch)
+          ch.onWriteSinkProgress(params.bytesWritten, params.expectedLength)
+      }
+    )
+
+    this.writeSinkCompleteListener = EventEmitter.addListener(
+      RNBlePeripheral.WRITE_SINK_COMPLETE,
+      (params: {
+        handle: number
+        characteristicUuid: string
+        path: string
+        bytesWritten: number
+        error?: string
+      }) => {
+        const ch = this.findCharacteristic(params)
+        if (ch)
+          ch.onWriteSinkComplete({
+            path: params.path,
+            bytesWritten: params.bytesWritten,
+            error: params.error,
+          })
+      }
+    )
+
+    this.notifyStreamProgressListener = EventEmitter.addListener(
+      RNBlePeripheral.NOTIFY_STREAM_PROGRESS,
+      (params: {
+        handle: number
+        characteristicUuid: string
+        path: string
+        sent: number
+        total: number
+      }) => {
+        const ch = this.findCharacteristic(params)
+        if (ch) ch.onNotifyStreamProgress(params.path, params.sent, params.total)
+      }
+    )
+
     this.unsubscribeListener = EventEmitter.addListener(
       RNBlePeripheral.UNSUBSCRIBED,
-      (params: { characteristicUuid: string; centralUuid: string }) => {
-        const ch = this.characteristics[params.characteristicUuid.toLowerCase()]
+      (params: {
+        handle?: number
+        characteristicUuid: string
+        centralUuid: string
+      }) => {
+        const ch = this.findCharacteristic(params)
         if (ch) ch.onUnsubscribe()
       }
     )
   }
 
+  /**
+   * _[Android]_ Answer read and write requests through a synchronous native call, skipping the asynchronous bridge round trip.
+   *
+   * Synchronous native calls are not available while debugging JS remotely.
+   */
+  setSynchronousResponses(enabled: boolean) {
+    this.synchronousResponses = enabled && Platform.OS === 'android'
+  }
+
+  /**
+   * _[Android]_ Deliver read and write requests, subscription changes, MTU and PHY changes in batches, so that a burst of requests crosses the bridge once instead of once per request.
+   *
+   * A batch is sent when it holds `maxEvents` events (64 by default) or `maxDelay` milliseconds after its first event (16 by default, about one frame). Listeners are called for every event in the batch, in order, as without batching.
+   */
+  setEventBatching(options: {
+    enabled?: boolean
+    maxEvents?: number
+    maxDelay?: number
+  }): Promise<void> {
+    if (Platform.OS !== 'android') return Promise.resolve()
+
+    if (!this.eventBatchListener) {
+      // kept after batching is turned off, for the batch sent when it is
+      this.eventBatchListener = EventEmitter.addListener(
+        RNBlePeripheral.EVENT_BATCH,
+        (events: { type: string; params: object }[]) =>
+          events.forEach(event => EventEmitter.emit(event.type, event.params))
+      )
+    }
+    return RNBlePeripheral.setEventBatching(options)
+  }
+
+  private respond(
+    requestId: string,
+    status: ResultStatus,
+    value: string | null
+  ): Promise<void> {
+    if (!this.synchronousResponses)
+      return RNBlePeripheral.respond(requestId, status, value)
+
+    return RNBlePeripheral.respondSync(requestId, status, value)
+      ? Promise.resolve()
+      : Promise.reject(new Error('invalid_request'))
+  }
+
+  private respondFields(
+    requestId: string,
+    ch: Characteristic,
+    fields: FieldValues
+  ): Promise<void> {
+    // [iOS] values are always Base64 strings
+    if (Platform.OS !== 'android')
+      return Promise.reject(new Error('schema_not_found'))
+
+    if (!this.synchronousResponses)
+      return RNBlePeripheral.respondFields(
+        requestId,
+        ch.handle,
+        'success',
+        fields
+      )
+
+    return RNBlePeripheral.respondFieldsSync(
+      requestId,
+      ch.handle,
+      'success',
+      fields
+    )
+      ? Promise.resolve()
+      : Promise.reject(new Error('invalid_request'))
+  }
+
+  private findCharacteristic(params: {
+    handle?: number
+    characteristicUuid: string
+  }): Characteristic | undefined {
+    if (params.handle !== undefined)
+      return this.characteristicsByHandle[params.handle]
+    return this.characteristics[params.characteristicUuid.toLowerCase()]
+  }
+
   /**
    * Stops advertising peripheral manager data.
    *
@@ -143,10 +396,119 @@ export default class Manager {
     this.subscribeListener && this.subscribeListener.remove()
     this.unsubscribeListener && this.unsubscribeListener.remove()
     this.writeRequestListener && this.writeRequestListener.remove()
+    this.writeSinkProgressListener && this.writeSinkProgressListener.remove()
+    this.writeSinkCompleteListener && this.writeSinkCompleteListener.remove()
+    this.notifyStreamProgressListener &&
+      this.notifyStreamProgressListener.remove()
 
     return RNBlePeripheral.stopAdvertising()
   }
 
+  /**
+   * _[Android]_ Get what the controller supports beyond legacy advertising: extended and periodic advertising sets, and the longest advertisement data they take.
+   */
+  getAdvertisingCapabilities(): Promise<AdvertisingCapabilities> {
+    if (Platform.OS !== 'android')
+      return Promise.resolve({
+        extended: false,
+        periodic: false,
+        maxDataLength: 28,
+      })
+    return RNBlePeripheral.getAdvertisingCapabilities()
+  }
+
+  /**
+   * _[Android 8+]_ Start an extended advertising set, identified by `id`, next to the advertisement of `startAdvertising`. Several sets can run at once. Resolves with the TX power picked by the stack, in dBm.
+   *
+   * With `periodic` options, the set also broadcasts `periodicData` at a fixed interval. Scanners synced to it receive every update without scanning or connecting, which is how values reach any number of passive listeners.
+   */
+  startAdvertisingSet(
+    id: string,
+    options: AdvertisingSetOptions
+  ): Promise<number> {
+    if (Platform.OS !== 'android')
+      return Promise.reject(new Error('not_supported'))
+    return RNBlePeripheral.startAdvertisingSet(id, options)
+  }
+
+  /**
+   * _[Android 8+]_ Replace the advertisement, scan response or periodic advertisement of a running set without restarting it.
+   *
+   * The stack takes one update at a time. Updates made while one is in progress are conflated: only the latest goes out, and the promises of the ones it replaced resolve with it.
+   */
+  setAdvertisingSetData(
+    id: string,
+    payload: AdvertisingPayload,
+    kind: AdvertisingPayloadKind = 'data'
+  ): Promise<void> {
+    if (Platform.OS !== 'android')
+      return Promise.reject(new Error('not_supported'))
+    return RNBlePeripheral.setAdvertisingSetData(id, kind, payload)
+  }
+
+  /**
+   * _[Android 8+]_ Replace the Base64 data of one service in the advertisement, scan response or periodic advertisement of a running set, keeping everything else. Meant for broadcasting readings, only the value crosses the bridge.
+   */
+  setAdvertisingSetServiceData(
+    id: string,
+    serviceUuid: string,
+    value: string,
+    kind: AdvertisingPayloadKind = 'periodicData'
+  ): Promise<void> {
+    if (Platform.OS !== 'android')
+      return Promise.reject(new Error('not_supported'))
+    return RNBlePeripheral.setAdvertisingSetServiceData(
+      id,
+      kind,
+      serviceUuid,
+      value
+    )
+  }
+
+  /**
+   * _[Android 8+]_ Stop an advertising set. Updates still in progress are rejected.
+   */
+  stopAdvertisingSet(id: string): Promise<void> {
+    if (Platform.OS !== 'android') return Promise.resolve()
+    return RNBlePeripheral.stopAdvertisingSet(id)
+  }
+
+  /**
+   * _[Android]_ Set how many notifications may be in flight to a single central before waiting for the previous ones to be sent. Defaults to 1.
+   *
+   * Notifications beyond the window are queued natively, so raising it only helps when the central's link can absorb more packets per connection event.
+   */
+  setNotificationWindow(window: number): Promise<void> {
+    if (Platform.OS !== 'android') return Promise.resolve()
+    return RNBlePeripheral.setNotificationWindow(window)
+  }
+
+  /**
+   * _[Android]_ Stop advertising while keeping the GATT server open. Services stay registered and connected centrals stay connected, unlike `stopAdvertising`.
+   */
+  pauseAdvertising(): Promise<void> {
+    if (Platform.OS !== 'android') return Promise.resolve()
+    return RNBlePeripheral.pauseAdvertising()
+  }
+
+  /**
+   * _[Android]_ Advertise again after `pauseAdvertising`, with the data and profile passed to `startAdvertising`. The `adaptive` profile starts a new low latency burst.
+   */
+  resumeAdvertising(): Promise<void> {
+    if (Platform.OS !== 'android') return Promise.resolve()
+    return RNBlePeripheral.resumeAdvertising()
+  }
+
+  /**
+   * _[Android]_ Change how the running advertisement trades discovery latency against power.
+   *
+   * The `adaptive` profile advertises in low latency mode for `burstDuration` milliseconds (30 seconds by default) after advertising starts, this method is called or a central disconnects, then in balanced mode for as long again, then in low power mode. With `maxConnections`, advertising pauses while that many centrals are connected.
+   */
+  setAdvertisingProfile(options: AdvertisingOptions): Promise<void> {
+    if (Platform.OS !== 'android') return Promise.resolve()
+    return RNBlePeripheral.setAdvertisingProfile(options)
+  }
+
   /**
    * A boolean value that indicates whether the peripheral is advertising data.
    *
@@ -156,6 +518,108 @@ export default class Manager {
     return RNBlePeripheral.isAdvertising()
   }
 
+  /**
+   * _[Android]_ Set how long `onReadRequest`/`onWriteRequest` may take, in milliseconds, before the request is answered natively with an error. Defaults to 10 seconds.
+   */
+  setRequestTimeout(timeout: number): Promise<void> {
+    if (Platform.OS !== 'android') return Promise.resolve()
+    return RNBlePeripheral.setRequestTimeout(timeout)
+  }
+
+  /**
+   * _[Android]_ Get the number of read and write requests waiting for a response.
+   */
+  getPendingRequestCount(): Promise<number> {
+    if (Platform.OS !== 'android') return Promise.resolve(0)
+    return RNBlePeripheral.getPendingRequestCount()
+  }
+
+  /**
+   * _[Android]_ Get request, notification and traffic counters for every characteristic, and their totals.
+   *
+   * Latencies are in milliseconds, from the request reaching the device to its response being sent, percentiles are rounded up to the next power of two microseconds. Resolves with `null` on iOS.
+   */
+  getStats(reset: boolean = false): Promise<Stats | null> {
+    if (Platform.OS !== 'android') return Promise.resolve(null)
+    return RNBlePeripheral.getStats(reset)
+  }
+
+  /**
+   * _[Android]_ Record every request, response, notification and connection event to a rotating binary log in app storage, to replay it offline with the benchmark's `TrafficReplay`. Resolves with the path of the log.
+   *
+   * Files hold `maxFileSize` bytes (8 MiB by default); once one is full it's rotated, keeping `maxFiles` files (4 by default).
+   */
+  startRecording(options: RecordingOptions = {}): Promise<string | null> {
+    if (Platform.OS !== 'android') return Promise.resolve(null)
+    return RNBlePeripheral.startRecording(options)
+  }
+
+  /**
+   * _[Android]_ Stop recording. Resolves with the path of the log and the number of records written, or with `null` when nothing was being recorded.
+   */
+  stopRecording(): Promise<RecordingResult | null> {
+    if (Platform.OS !== 'android') return Promise.resolve(null)
+    return RNBlePeripheral.stopRecording()
+  }
+
+  /**
+   * _[Android]_ Log every request, response and event to logcat. Off by default.
+   */
+  setVerboseLogging(enabled: boolean) {
+    if (Platform.OS === 'android') RNBlePeripheral.setVerboseLogging(enabled)
+  }
+
+  /**
+   * _[Android]_ Get the ATT MTU negotiated with a connected central. Values larger than the MTU - 3 are split into several notifications natively. Resolves with the default MTU of 23 on iOS.
+   */
+  getMtu(centralUuid: string): Promise<number> {
+    if (Platform.OS !== 'android') return Promise.resolve(23)
+    return RNBlePeripheral.getMtu(centralUuid)
+  }
+
+  /**
+   * _[Android]_ Called whenever a central negotiates a new ATT MTU.
+   */
+  onMtuChanged(
+    listener: (params: { centralUuid: string; mtu: number }) => void
+  ) {
+    return EventEmitter.addListener(RNBlePeripheral.MTU_CHANGED, listener)
+  }
+
+  /**
+   * _[Android]_ Ask for a PHY on the links to centrals, `2M` doubling the radio rate of bulk transfers when both sides support it. With `centralUuid` for that central only, otherwise for every connected central and every central connecting later. Pass `phy: null` without `centralUuid` to stop asking on connect.
+   *
+   * The central may refuse; `onPhyChanged` reports the PHY actually used. Requires Android 8.0.
+   */
+  setPreferredPhy(options: {
+    phy: Phy | null
+    centralUuid?: string
+  }): Promise<void> {
+    if (Platform.OS !== 'android') return Promise.resolve()
+    return RNBlePeripheral.setPreferredPhy(options)
+  }
+
+  /**
+   * _[Android]_ Get the ATT MTU and the PHYs of the link to a connected central. Resolves with `null` on iOS.
+   */
+  getConnectionInfo(centralUuid: string): Promise<ConnectionInfo | null> {
+    if (Platform.OS !== 'android') return Promise.resolve(null)
+    return RNBlePeripheral.getConnectionInfo(centralUuid)
+  }
+
+  /**
+   * _[Android]_ Called whenever the PHY of the link to a central changes.
+   */
+  onPhyChanged(
+    listener: (params: {
+      centralUuid: string
+      txPhy: LinkPhy
+      rxPhy: LinkPhy
+    }) => void
+  ) {
+    return EventEmitter.addListener(RNBlePeripheral.PHY_CHANGED, listener)
+  }
+
   /**
    * Implement this method to ensure that Bluetooth low energy is available to use on the local peripheral device.
    *
@@ -169,6 +633,138 @@ export default class Manager {
   }
 }
 
+/**
+ * FNV-1a hash of the service definitions, handles left out as they're assigned natively.
+ */
+function hashServices(services: Service[]): string {
+  const json = JSON.stringify(services, (key, value) =>
+    key === 'handle' ? undefined : value
+  )
+  let hash = 0x811c9dc5
+  for (let i = 0; i < json.length; i++) {
+    hash ^= json.charCodeAt(i)
+    hash = Math.imul(hash, 0x01000193)
+  }
+  return (hash >>> 0).toString(16) + ':' + json.length
+}
+
+export type AdvertisingProfile =
+  | 'lowLatency'
+  | 'balanced'
+  | 'lowPower'
+  | 'adaptive'
+
+export type AdvertisingOptions = {
+  /** Defaults to `balanced`. */
+  profile?: AdvertisingProfile
+  /** Length of the low latency burst of the `adaptive` profile, in milliseconds. */
+  burstDuration?: number
+  /** Pause advertising while this many centrals are connected, 0 never pauses. */
+  maxConnections?: number
+}
+
+export type AdvertisingCapabilities = {
+  extended: boolean
+  periodic: boolean
+  /** In bytes, per advertisement, scan response or periodic advertisement. */
+  maxDataLength: number
+}
+
+export type AdvertisingPayloadKind = 'data' | 'scanResponse' | 'periodicData'
+
+export type AdvertisingPayload = {
+  serviceUuids?: string[]
+  /** Base64 data, by service UUID. */
+  serviceData?: { [serviceUuid: string]: string }
+  /** Base64 data, by company identifier. */
+  manufacturerData?: { [companyId: number]: string }
+  includeDeviceName?: boolean
+  includeTxPower?: boolean
+}
+
+export type AdvertisingSetOptions = {
+  /** Legacy advertising PDUs, for scanners without extended advertising support. Defaults to `false`. */
+  legacy?: boolean
+  /** Defaults to `false`. Connections are only accepted while the GATT server is open, i.e. after `startAdvertising`. */
+  connectable?: boolean
+  /** Interval in milliseconds, overrides the one of `profile`. */
+  interval?: number
+  /** `lowLatency` advertises every 100 ms, `balanced` every 250 ms (default), `lowPower` every second. */
+  profile?: AdvertisingProfile
+  /** In dBm, from -127 to 1. Defaults to -7. */
+  txPowerLevel?: number
+  primaryPhy?: '1M' | 'coded'
+  secondaryPhy?: '1M' | '2M' | 'coded'
+  /** Include the TX power in the extended advertising header. */
+  includeTxPower?: boolean
+  data?: AdvertisingPayload
+  /** Makes the set scannable. */
+  scanResponse?: AdvertisingPayload
+  periodic?: {
+    /** In milliseconds, from 100 to 81918. Defaults to 1000. */
+    interval?: number
+    includeTxPower?: boolean
+  }
+  periodicData?: AdvertisingPayload
+}
+
+/** `codedS2` and `codedS8` ask for the coded PHY with that coding. */
+export type Phy = '1M' | '2M' | 'coded' | 'codedS2' | 'codedS8'
+
+export type LinkPhy = '1M' | '2M' | 'coded' | 'unknown'
+
+export type ConnectionInfo = {
+  centralUuid: string
+  mtu: number
+  txPhy: LinkPhy
+  rxPhy: LinkPhy
+}
+
+export type RecordingOptions = {
+  /** Defaults to a file in the app's files directory. */
+  path?: string
+  maxFileSize?: number
+  maxFiles?: number
+}
+
+export type RecordingResult = {
+  path: string
+  records: number
+  /** Records larger than a file, left out. */
+  dropped: number
+}
+
+export type Counters = {
+  /** Read and write requests, including ones answered natively. */
+  requests: number
+  /** Reads answered from the native value cache. */
+  cacheHits: number
+  /** Requests answered with an error because `onReadRequest`/`onWriteRequest` took too long. */
+  timeouts: number
+  notificationsSent: number
+  notificationsDropped: number
+  /** Notify calls conflated into a later value or skipped as a repeat by the `notifyPolicy`. */
+  notificationsSkipped: number
+  bytesIn: number
+  bytesOut: number
+  latency: {
+    count: number
+    mean: number
+    p50: number
+    p90: number
+    p99: number
+    max: number
+  }
+}
+
+export type Stats = Counters & {
+  characteristics: (Counters & {
+    handle: number
+    serviceUuid?: string
+    characteristicUuid?: string
+  })[]
+}
+
 export type ManagerState =
   /** A state that indicates Bluetooth is currently powered off. */
   | 'poweredOff'
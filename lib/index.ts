@@ -1,5 +1,31 @@
 export { default as Characteristic } from './Characteristic'
 export { default as Service } from './Service'
-import Manager, { ManagerState } from './Manager'
-export { ManagerState }
+import Manager, {
+  AdvertisingCapabilities,
+  AdvertisingPayload,
+  AdvertisingPayloadKind,
+  AdvertisingProfile,
+  AdvertisingSetOptions,
+  ConnectionInfo,
+  LinkPhy,
+  ManagerState,
+  Phy,
+  RecordingOptions,
+  RecordingResult,
+  Stats,
+} from './Manager'
+export {
+  AdvertisingCapabilities,
+  AdvertisingPayload,
+  AdvertisingPayloadKind,
+  AdvertisingProfile,
+  AdvertisingSetOptions,
+  ConnectionInfo,
+  LinkPhy,
+  ManagerState,
+  Phy,
+  RecordingOptions,
+  RecordingResult,
+  Stats,
+}
 export default new Manager()